@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.bench;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahPlayer;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import com.zenilt.kalah.exception.KalahIlegalMoveException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the paths of KalahGame hit by the game servers: construction, moves, illegal moves and the winner.
+ *
+ * The playouts choose their pits from a fixed sequence of random numbers, so every run plays the same games.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KalahGameBenchmark {
+
+    private static final int CHOICES = 1 << 12;
+
+    @Param({"STONES_3", "STONES_4", "STONES_6"})
+    public KalahMode mode;
+
+    private int[] choices;
+    private int next;
+    private KalahGame playing;
+    private KalahGame finished;
+
+    @Setup
+    public void setUp() throws KalahException {
+	SplittableRandom random = new SplittableRandom(42);
+	choices = new int[CHOICES];
+	for (int i = 0; i < CHOICES; i++) {
+	    choices[i] = random.nextInt(KalahBoard.PITS);
+	}
+	playing = new KalahGame(mode);
+	playing.start();
+	finished = playout();
+    }
+
+    @Benchmark
+    public KalahGame construct() {
+	return new KalahGame(mode);
+    }
+
+    @Benchmark
+    public KalahGame randomGame() throws KalahException {
+	return playout();
+    }
+
+    @Benchmark
+    public KalahPlayer winner() throws KalahException {
+	return finished.getWinner();
+    }
+
+    @Benchmark
+    public boolean illegalMove() throws KalahException {
+	try {
+	    playing.move(KalahBoard.PITS);
+	    return false;
+	} catch (KalahIlegalMoveException ex) {
+	    return true;
+	}
+    }
+
+    @Benchmark
+    public KalahMove illegalTryMove() {
+	return playing.tryMove(KalahBoard.PITS);
+    }
+
+    private KalahGame playout() throws KalahException {
+	KalahGame game = new KalahGame(mode);
+	game.start();
+	while (game.getStatus() != KalahStatus.FINISHED) {
+	    KalahPlayer player = game.getStatus() == KalahStatus.PLAYINGA ? game.getPlayerA() : game.getPlayerB();
+	    int pit = choices[next];
+	    next = (next + 1) & (CHOICES - 1);
+	    while (player.getPit(pit).isEmpty()) {
+		pit = pit == KalahBoard.PITS - 1 ? 0 : pit + 1;
+	    }
+	    try {
+		game.move(pit);
+	    } catch (KalahIlegalMoveException ex) {
+		throw new IllegalStateException(ex);
+	    }
+	}
+	return game;
+    }
+
+}
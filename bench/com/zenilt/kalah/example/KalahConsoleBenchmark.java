@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.example;
+
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.exception.KalahException;
+import com.zenilt.kalah.exception.KalahIlegalMoveException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the rendering of the board by KalahConsole, written to a stream that discards the output.
+ *
+ * It lives in the package of KalahConsole to reach printKalahGame.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KalahConsoleBenchmark {
+
+    @Param({"STONES_3", "STONES_4", "STONES_6"})
+    public KalahMode mode;
+
+    private KalahGame game;
+    private PrintStream stream;
+
+    @Setup
+    public void setUp() throws KalahException, KalahIlegalMoveException {
+	game = new KalahGame(mode);
+	game.start();
+	game.move(2);
+	game.move(5);
+	stream = new PrintStream(new OutputStream() {
+	    @Override
+	    public void write(int b) {
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) {
+	    }
+	});
+    }
+
+    @Benchmark
+    public void printWithNumbers() {
+	KalahConsole.printKalahGame(game, stream, true);
+    }
+
+    @Benchmark
+    public void printWithoutNumbers() {
+	KalahConsole.printKalahGame(game, stream, false);
+    }
+
+}
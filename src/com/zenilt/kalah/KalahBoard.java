@@ -0,0 +1,533 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+/**
+ * Primitive representation of the board, the stones are kept as counts.
+ *
+ * The squares are stored in sowing order: the pits of player A, the house of player A, the pits of player B and the house
+ * of player B. Moves are sown by index arithmetic and never allocate, whole laps around the board at once, so a move
+ * costs the same with 1 or 60 stones. Where a move ends is read from the tables of its KalahRules.
+ *
+ * Use legalMoves() to list the available pits, play(int pitIndex) to apply one of them and undo(long move) with the value
+ * returned by play to take it back.
+ *
+ * The board keeps a Zobrist hash of the counts of every square and the side to move, updated along with the squares.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahBoard {
+
+    /**
+     * Number of pits on each side of the board of the standard modes
+     */
+    public static final int PITS = 6;
+    /**
+     * Side of player A
+     */
+    public static final int SIDE_A = 0;
+    /**
+     * Side of player B
+     */
+    public static final int SIDE_B = 1;
+
+    /**
+     * Value returned by play for an illegal move, the board is left untouched
+     */
+    public static final long ILEGAL_MOVE = 0L;
+
+    private static final KalahMove[] MOVES = KalahMove.values();
+    private static final int PIT_BITS = 4;
+    private static final int STONES_BITS = 8;
+    private static final int MOVE_BITS = 2;
+    private static final int CAPTURED_BITS = 8;
+    private static final int STONES_SHIFT = PIT_BITS;
+    private static final int MOVE_SHIFT = STONES_SHIFT + STONES_BITS;
+    private static final int CAPTURED_SHIFT = MOVE_SHIFT + MOVE_BITS;
+    private static final int SIDE_SHIFT = CAPTURED_SHIFT + CAPTURED_BITS;
+    private static final int KEYS_PER_SQUARE = KalahRules.MAX_STONES + 1;
+
+    int[] squares;
+    private final int[] sideStones = new int[3];
+    private KalahRules rules;
+    private int pits;
+    private long[] keys;
+    private int[] owners;
+    private int side;
+    private long hash;
+
+    /**
+     * Constructor uses game mode to add the initial stones
+     *
+     * @param mode the mode determines how many stones put initialy in each pit
+     */
+    public KalahBoard(KalahMode mode) {
+	this(KalahRules.of(mode));
+    }
+
+    /**
+     * Constructor with the initial stones of some rules
+     *
+     * @param rules the rules that determine the pits and how many stones put initialy in each pit
+     */
+    public KalahBoard(KalahRules rules) {
+	setRules(rules);
+	this.squares = new int[rules.squares];
+	for (int i = 0; i < pits; i++) {
+	    this.squares[pitSquare(SIDE_A, i)] = rules.getSeeds();
+	    this.squares[pitSquare(SIDE_B, i)] = rules.getSeeds();
+	}
+	this.sideStones[SIDE_A] = pits * rules.getSeeds();
+	this.sideStones[SIDE_B] = pits * rules.getSeeds();
+	this.side = SIDE_A;
+	this.hash = computeHash();
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param board the board to copy
+     */
+    public KalahBoard(KalahBoard board) {
+	this.squares = new int[board.squares.length];
+	copyFrom(board);
+    }
+
+    /**
+     * Overwrites this board with the contents of another one, including its rules
+     *
+     * @param board the board to copy
+     */
+    public void copyFrom(KalahBoard board) {
+	if (rules != board.rules) {
+	    setRules(board.rules);
+	    if (squares.length != board.squares.length) {
+		squares = new int[board.squares.length];
+	    }
+	}
+	System.arraycopy(board.squares, 0, squares, 0, squares.length);
+	System.arraycopy(board.sideStones, 0, sideStones, 0, sideStones.length);
+	side = board.side;
+	hash = board.hash;
+    }
+
+    /**
+     * Gets the rules of the board
+     *
+     * @return the rules
+     */
+    public KalahRules getRules() {
+	return rules;
+    }
+
+    /**
+     * Gets the number of pits on each side
+     *
+     * @return the number of pits
+     */
+    public int getPits() {
+	return pits;
+    }
+
+    /**
+     * Gets the side that has to move next
+     *
+     * @return SIDE_A or SIDE_B
+     */
+    public int getSideToMove() {
+	return side;
+    }
+
+    /**
+     * Gets the Zobrist hash of the position, equal positions with the same side to move and the same number of pits have
+     * the same hash
+     *
+     * @return the hash of the position
+     */
+    public long getHash() {
+	return hash;
+    }
+
+    /**
+     * Gets the Zobrist hash of the pits, positions that only differ in the houses have the same hash, as their outcome
+     * only differs by the stones already in the houses
+     *
+     * @return the hash of the pits and the side to move
+     */
+    public long getPitsHash() {
+	int houseA = houseSquare(SIDE_A);
+	int houseB = houseSquare(SIDE_B);
+	return hash ^ keys[houseA * KEYS_PER_SQUARE + squares[houseA]] ^ keys[houseB * KEYS_PER_SQUARE + squares[houseB]];
+    }
+
+    /**
+     * Gets the amount of stones in a pit
+     *
+     * @param side SIDE_A or SIDE_B
+     * @param pitIndex the index of the pit, a value between 0 and getPits()
+     * @return the number of stones
+     */
+    public int getPit(int side, int pitIndex) {
+	return squares[pitSquare(side, pitIndex)];
+    }
+
+    /**
+     * Gets the amount of stones in a house
+     *
+     * @param side SIDE_A or SIDE_B
+     * @return the number of stones
+     */
+    public int getHouse(int side) {
+	return squares[houseSquare(side)];
+    }
+
+    /**
+     * Sets the amount of stones in a pit, used to set up positions
+     *
+     * @param side SIDE_A or SIDE_B
+     * @param pitIndex the index of the pit, a value between 0 and getPits()
+     * @param stones the number of stones
+     */
+    public void setPit(int side, int pitIndex, int stones) {
+	set(pitSquare(side, pitIndex), stones);
+    }
+
+    /**
+     * Sets the amount of stones in a house, used to set up positions
+     *
+     * @param side SIDE_A or SIDE_B
+     * @param stones the number of stones
+     */
+    public void setHouse(int side, int stones) {
+	set(houseSquare(side), stones);
+    }
+
+    /**
+     * Sets the side that has to move next, used to set up positions
+     *
+     * @param side SIDE_A or SIDE_B
+     */
+    public void setSideToMove(int side) {
+	if (side != SIDE_A && side != SIDE_B) {
+	    throw new IllegalArgumentException("side must be SIDE_A or SIDE_B");
+	}
+	if (this.side != side) {
+	    this.side = side;
+	    hash ^= rules.sideKey;
+	}
+    }
+
+    /**
+     * Check if any of the sides has no remaining stones in its pits
+     *
+     * @return true if the game is over, false otherwise
+     */
+    public boolean isFinished() {
+	return sideStones[SIDE_A] == 0 || sideStones[SIDE_B] == 0;
+    }
+
+    /**
+     * Check if a house holds more than half of the stones, so the other one can't catch up with it
+     *
+     * @return true if the winner is already known, false otherwise
+     */
+    public boolean isDecided() {
+	int houseA = getHouse(SIDE_A);
+	int houseB = getHouse(SIDE_B);
+	int stones = houseA + houseB + sideStones[SIDE_A] + sideStones[SIDE_B];
+	return 2 * houseA > stones || 2 * houseB > stones;
+    }
+
+    /**
+     * Check if a side has any remaining stones in its pits
+     *
+     * @param side SIDE_A or SIDE_B
+     * @return true if there are stones in any of the pits, false otherwise
+     */
+    public boolean hasStones(int side) {
+	return sideStones[side] > 0;
+    }
+
+    /**
+     * Gets the amount of stones left in the pits of a side, kept up to date by every change so it costs nothing to read
+     *
+     * @param side SIDE_A or SIDE_B
+     * @return the number of stones in the pits, houses not included
+     */
+    public int getPitStones(int side) {
+	return sideStones[side];
+    }
+
+    /**
+     * Moves the stones left in the pits of each side to its house, as done when the game ends
+     */
+    public void sweep() {
+	for (int owner = SIDE_A; owner <= SIDE_B; owner++) {
+	    add(houseSquare(owner), sideStones[owner]);
+	    for (int i = 0; i < pits; i++) {
+		add(pitSquare(owner, i), -squares[pitSquare(owner, i)]);
+	    }
+	}
+    }
+
+    /**
+     * Gets the pits the side to move can play
+     *
+     * @return a bit mask where bit i is set if the pit with index i can be played, 0 if the game is over
+     */
+    public int legalMoves() {
+	if (isFinished()) {
+	    return 0;
+	}
+	int first = pitSquare(side, 0);
+	int moves = 0;
+	for (int i = 0; i < pits; i++) {
+	    if (squares[first + i] > 0) {
+		moves |= 1 << i;
+	    }
+	}
+	return moves;
+    }
+
+    /**
+     * Check if playing a pit of the side to move would end in its house and give it an additional turn
+     *
+     * @param pitIndex the index of the pit
+     * @return true if the last stone would fall in the house, false otherwise or if the pit is empty
+     */
+    public boolean isPlayAgain(int pitIndex) {
+	int square = pitSquare(side, pitIndex);
+	int stones = squares[square];
+	return stones > 0 && rules.landing(square, stones) == houseSquare(side);
+    }
+
+    /**
+     * Sows the stones of a pit of the side to move and hands the turn over unless the last stone ended up in the house.
+     *
+     * @param pitIndex the index of the pit
+     * @return the played move, to be passed to getMove(long move) or undo(long move), ILEGAL_MOVE if the pit can't be played
+     */
+    public long play(int pitIndex) {
+	if (pitIndex < 0 || pitIndex >= pits) {
+	    return ILEGAL_MOVE;
+	}
+	int mover = side;
+	int square = pitSquare(mover, pitIndex);
+	int stones = squares[square];
+	if (stones == 0) {
+	    return ILEGAL_MOVE;
+	}
+	int last = rules.landing(square, stones);
+	add(square, -stones);
+	spread(square, stones, 1);
+	int ownHouse = houseSquare(mover);
+	KalahMove move = KalahMove.CONTINUE;
+	int captured = 0;
+	if (last == ownHouse) {
+	    move = KalahMove.PLAYAGAIN;
+	} else if (squares[last] == 1 && ownsSquare(mover, last)
+		&& (rules.isEmptyCapture() || squares[oppositeSquare(last)] > 0)) {
+	    //last stone fell in an empty pit of the mover, it takes it along with the opposite ones
+	    int opposite = oppositeSquare(last);
+	    captured = squares[opposite];
+	    add(ownHouse, 1 + captured);
+	    add(last, -1);
+	    add(opposite, -captured);
+	    move = KalahMove.STEAL;
+	}
+	if (move != KalahMove.PLAYAGAIN) {
+	    side = opponent(mover);
+	    hash ^= rules.sideKey;
+	}
+	return pitIndex
+		| (long) stones << STONES_SHIFT
+		| (long) move.ordinal() << MOVE_SHIFT
+		| (long) captured << CAPTURED_SHIFT
+		| (long) mover << SIDE_SHIFT;
+    }
+
+    /**
+     * Takes back a move, it must be the last one played on this board
+     *
+     * @param move the value returned by play(int pitIndex)
+     */
+    public void undo(long move) {
+	if (move == ILEGAL_MOVE) {
+	    return;
+	}
+	int mover = getSide(move);
+	int stones = getStones(move);
+	int square = pitSquare(mover, getPitIndex(move));
+	if (getMove(move) == KalahMove.STEAL) {
+	    int captured = getCaptured(move);
+	    int last = rules.landing(square, stones);
+	    add(last, 1);
+	    add(oppositeSquare(last), captured);
+	    add(houseSquare(mover), -1 - captured);
+	}
+	spread(square, stones, -1);
+	add(square, stones);
+	if (side != mover) {
+	    side = mover;
+	    hash ^= rules.sideKey;
+	}
+    }
+
+    /**
+     * Gets the kind of a played move
+     *
+     * @param move the value returned by play(int pitIndex)
+     * @return the kind of move, ILEGAL for ILEGAL_MOVE
+     */
+    public static KalahMove getMove(long move) {
+	return MOVES[(int) (move >>> MOVE_SHIFT) & ((1 << MOVE_BITS) - 1)];
+    }
+
+    /**
+     * Gets the index of the pit of a played move
+     *
+     * @param move the value returned by play(int pitIndex)
+     * @return the index of the pit
+     */
+    public static int getPitIndex(long move) {
+	return (int) move & ((1 << PIT_BITS) - 1);
+    }
+
+    /**
+     * Packs the stones of a pit moved to the house of its side when the game ends, as a CONTINUE move of that pit that
+     * sows nothing past it
+     */
+    static long sweptPit(int side, int pitIndex, int stones) {
+	return pitIndex
+		| (long) stones << STONES_SHIFT
+		| (long) KalahMove.CONTINUE.ordinal() << MOVE_SHIFT
+		| (long) side << SIDE_SHIFT;
+    }
+
+    /**
+     * Gets the stones sown by a played move
+     */
+    static int getStones(long move) {
+	return (int) (move >>> STONES_SHIFT) & ((1 << STONES_BITS) - 1);
+    }
+
+    /**
+     * Gets the stones of the opponent captured by a played move
+     */
+    static int getCaptured(long move) {
+	return (int) (move >>> CAPTURED_SHIFT) & ((1 << CAPTURED_BITS) - 1);
+    }
+
+    /**
+     * Gets the side that played a move
+     */
+    static int getSide(long move) {
+	return (int) (move >>> SIDE_SHIFT) & 1;
+    }
+
+    /**
+     * Adds delta to the squares reached by sowing stones from a square, skipping the opponent's house.
+     *
+     * Each square but the opponent's house gets one stone per lap around the board, and the remaining stones go to the
+     * first squares after the sown one, so every square is updated once whatever the number of stones.
+     */
+    private void spread(int square, int stones, int delta) {
+	int opponentHouse = houseSquare(opponent(sideOfSquare(square)));
+	int cycle = squares.length - 1;
+	if (stones <= cycle) {
+	    for (int i = 0; i < stones; i++) {
+		square = square == cycle ? 0 : square + 1;
+		if (square == opponentHouse) {
+		    square = square == cycle ? 0 : square + 1;
+		}
+		add(square, delta);
+	    }
+	    return;
+	}
+	int laps = rules.laps(stones);
+	int remaining = stones - laps * cycle;
+	for (int i = 0; i < cycle; i++) {
+	    square = square == cycle ? 0 : square + 1;
+	    if (square == opponentHouse) {
+		square = square == cycle ? 0 : square + 1;
+	    }
+	    add(square, (i < remaining ? laps + 1 : laps) * delta);
+	}
+    }
+
+    void set(int square, int stones) {
+	if (stones < 0 || stones > KalahRules.MAX_STONES) {
+	    throw new IllegalArgumentException("stones must be between 0 and " + KalahRules.MAX_STONES);
+	}
+	add(square, stones - squares[square]);
+    }
+
+    private void add(int square, int delta) {
+	int stones = squares[square];
+	squares[square] = stones + delta;
+	sideStones[owners[square]] += delta;
+	hash ^= keys[square * KEYS_PER_SQUARE + stones] ^ keys[square * KEYS_PER_SQUARE + stones + delta];
+    }
+
+    private void setRules(KalahRules rules) {
+	this.rules = rules;
+	this.pits = rules.getPits();
+	this.keys = rules.keys;
+	this.owners = rules.owners;
+    }
+
+    private long computeHash() {
+	long h = side == SIDE_B ? rules.sideKey : 0L;
+	for (int i = 0; i < squares.length; i++) {
+	    h ^= keys[i * KEYS_PER_SQUARE + squares[i]];
+	}
+	return h;
+    }
+
+    int pitSquare(int side, int pitIndex) {
+	return side * (pits + 1) + pitIndex;
+    }
+
+    int houseSquare(int side) {
+	return side * (pits + 1) + pits;
+    }
+
+    static int opponent(int side) {
+	return 1 - side;
+    }
+
+    private int sideOfSquare(int square) {
+	return square / (pits + 1);
+    }
+
+    private boolean ownsSquare(int side, int square) {
+	int first = pitSquare(side, 0);
+	return square >= first && square < first + pits;
+    }
+
+    private int oppositeSquare(int square) {
+	return 2 * pits - square;
+    }
+
+}
@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+import com.zenilt.kalah.exception.KalahException;
+import com.zenilt.kalah.exception.KalahIlegalMoveException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of positions and game records.
+ *
+ * A position takes POSITION_BYTES bytes: the stones of the 14 squares with 7 bits each, from the first pit of player A
+ * to the house of player B, then the side to move, the status and the mode; the bit left free after the first 9 squares
+ * is set for games that finish when decided. A record is the mode, with its highest bit set for games that finish when
+ * decided, the number of moves and the index of each played pit with 3 bits. Both can be read back into a KalahGame.
+ * Only games of the standard modes can be encoded.
+ *
+ * The methods read and write at the position of the buffer and advance it, as the relative methods of ByteBuffer do.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahCodec {
+
+    /**
+     * Size of an encoded position, in bytes
+     */
+    public static final int POSITION_BYTES = 13;
+    /**
+     * Maximum number of moves of a record
+     */
+    public static final int MAX_RECORD_MOVES = 0xFFFF;
+    /**
+     * Size of the header of a record, the mode and the number of moves, in bytes
+     */
+    public static final int RECORD_HEADER_BYTES = 3;
+
+    private static final int STONE_BITS = 7;
+    private static final int MOVE_BITS = 3;
+    private static final int LOW_SQUARES = Long.SIZE / STONE_BITS;
+    private static final int SQUARES = 2 * KalahBoard.PITS + 2;
+    private static final int SIDE_SHIFT = (SQUARES - LOW_SQUARES) * STONE_BITS;
+    private static final int STATUS_SHIFT = SIDE_SHIFT + 1;
+    private static final int MODE_SHIFT = STATUS_SHIFT + 2;
+    //the squares in the low long leave its top bit free
+    private static final int DECIDED_SHIFT = LOW_SQUARES * STONE_BITS;
+    private static final int RECORD_DECIDED = 0x80;
+    private static final long STONE_MASK = (1L << STONE_BITS) - 1;
+    private static final KalahStatus[] STATUSES = KalahStatus.values();
+    private static final KalahMode[] MODES = KalahMode.values();
+
+    private KalahCodec() {
+    }
+
+    /**
+     * Writes the position of a game
+     *
+     * @param game the game
+     * @param buffer the buffer to write, with at least POSITION_BYTES remaining
+     * @throws IllegalArgumentException if the game is not of a standard mode
+     */
+    public static void encode(KalahGame game, ByteBuffer buffer) {
+	encode(game.getMode(), game.getStatus(), game.board, game.isFinishWhenDecided(), buffer);
+    }
+
+    /**
+     * Writes a position
+     *
+     * @param mode the mode of the game
+     * @param status the status of the game
+     * @param board the board
+     * @param buffer the buffer to write, with at least POSITION_BYTES remaining
+     * @throws IllegalArgumentException if the mode is null or the board does not have the pits of the standard modes
+     */
+    public static void encode(KalahMode mode, KalahStatus status, KalahBoard board, ByteBuffer buffer) {
+	encode(mode, status, board, false, buffer);
+    }
+
+    private static void encode(KalahMode mode, KalahStatus status, KalahBoard board, boolean decided, ByteBuffer buffer) {
+	if (mode == null || board.getPits() != KalahBoard.PITS) {
+	    throw new IllegalArgumentException("Only the standard modes can be encoded");
+	}
+	long low = 0;
+	long high = 0;
+	for (int square = 0; square < SQUARES; square++) {
+	    long stones = board.squares[square];
+	    if (square < LOW_SQUARES) {
+		low |= stones << (square * STONE_BITS);
+	    } else {
+		high |= stones << ((square - LOW_SQUARES) * STONE_BITS);
+	    }
+	}
+	high |= (long) board.getSideToMove() << SIDE_SHIFT;
+	high |= (long) status.ordinal() << STATUS_SHIFT;
+	high |= (long) mode.ordinal() << MODE_SHIFT;
+	low |= (decided ? 1L : 0L) << DECIDED_SHIFT;
+	buffer.putLong(low);
+	buffer.putInt((int) (high >>> Byte.SIZE));
+	buffer.put((byte) high);
+    }
+
+    /**
+     * Reads a position into a board
+     *
+     * @param buffer the buffer to read, with at least POSITION_BYTES remaining
+     * @param board the board to set up, with the pits of the standard modes
+     * @return the status of the game
+     * @throws IllegalArgumentException if the bytes are not a valid position
+     */
+    public static KalahStatus decode(ByteBuffer buffer, KalahBoard board) {
+	if (board.getPits() != KalahBoard.PITS) {
+	    throw new IllegalArgumentException("Only boards of the standard modes can be decoded");
+	}
+	long low = buffer.getLong();
+	return STATUSES[read(low, readHigh(buffer), board) & 0x3];
+    }
+
+    /**
+     * Reads a position into a new game
+     *
+     * @param buffer the buffer to read, with at least POSITION_BYTES remaining
+     * @return the game, in the same status and with the same board as the encoded one
+     * @throws IllegalArgumentException if the bytes are not a valid position
+     */
+    public static KalahGame decode(ByteBuffer buffer) {
+	long low = buffer.getLong();
+	long high = readHigh(buffer);
+	int mode = (int) (high >>> MODE_SHIFT) & 0x3;
+	KalahBoard board = new KalahBoard(mode < MODES.length ? MODES[mode] : KalahMode.STONES_3);
+	int read = read(low, high, board);
+	KalahGame game = new KalahGame(board, STATUSES[read & 0x3]);
+	game.setFinishWhenDecided((read >>> 4) != 0);
+	return game;
+    }
+
+    /**
+     * Gets the size of an encoded record
+     *
+     * @param moves the number of moves
+     * @return the size in bytes
+     */
+    public static int recordBytes(int moves) {
+	return RECORD_HEADER_BYTES + (moves * MOVE_BITS + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    /**
+     * Gets the mode of the record at the position of a buffer, without moving it
+     *
+     * @param buffer the buffer, with at least RECORD_HEADER_BYTES remaining
+     * @return the mode, or null if the header is not of a standard mode
+     */
+    public static KalahMode getRecordMode(ByteBuffer buffer) {
+	int mode = buffer.get(buffer.position()) & 0xFF & ~RECORD_DECIDED;
+	return mode < MODES.length ? MODES[mode] : null;
+    }
+
+    /**
+     * Check if the record at the position of a buffer is of a game that finishes when decided, without moving it
+     *
+     * @param buffer the buffer, with at least RECORD_HEADER_BYTES remaining
+     * @return true if the game ends as soon as the winner is known
+     */
+    public static boolean isRecordDecided(ByteBuffer buffer) {
+	return (buffer.get(buffer.position()) & RECORD_DECIDED) != 0;
+    }
+
+    /**
+     * Gets the number of moves of the record at the position of a buffer, without moving it, to find out with
+     * recordBytes whether the whole record is in the buffer
+     *
+     * @param buffer the buffer, with at least RECORD_HEADER_BYTES remaining
+     * @return the number of moves
+     */
+    public static int getRecordMoves(ByteBuffer buffer) {
+	return buffer.getShort(buffer.position() + 1) & 0xFFFF;
+    }
+
+    /**
+     * Reads the moves of a record without replaying them, for readers that replay many records on their own
+     *
+     * @param buffer the buffer, with the whole record remaining, it is left after the record
+     * @param moves where to write the index of each played pit, with room for getRecordMoves(buffer) moves
+     * @return the number of moves
+     */
+    public static int readRecord(ByteBuffer buffer, int[] moves) {
+	int count = getRecordMoves(buffer);
+	buffer.position(buffer.position() + RECORD_HEADER_BYTES);
+	long bits = 0;
+	int available = 0;
+	for (int i = 0; i < count; i++) {
+	    if (available < MOVE_BITS) {
+		bits |= (long) (buffer.get() & 0xFF) << available;
+		available += Byte.SIZE;
+	    }
+	    moves[i] = (int) (bits & ((1 << MOVE_BITS) - 1));
+	    bits >>>= MOVE_BITS;
+	    available -= MOVE_BITS;
+	}
+	return count;
+    }
+
+    /**
+     * Writes the record of the moves of a game
+     *
+     * @param game the game, constructed with its mode and played with move or tryMove
+     * @param buffer the buffer to write, with at least recordBytes(game.getMoveCount()) remaining
+     * @throws IllegalArgumentException if the game is not of a standard mode
+     */
+    public static void encodeRecord(KalahGame game, ByteBuffer buffer) {
+	encodeRecord(game.getMode(), game.isFinishWhenDecided(), game.getMoves(), game.getMoveCount(), buffer);
+    }
+
+    /**
+     * Writes the record of a game played from the start
+     *
+     * @param mode the mode of the game
+     * @param moves the indexes of the played pits, in order
+     * @param count the number of moves
+     * @param buffer the buffer to write, with at least recordBytes(count) remaining
+     */
+    public static void encodeRecord(KalahMode mode, int[] moves, int count, ByteBuffer buffer) {
+	encodeRecord(mode, false, moves, count, buffer);
+    }
+
+    /**
+     * Writes the record of a game played from the start
+     *
+     * @param mode the mode of the game
+     * @param decided true if the game finishes as soon as its result is decided
+     * @param moves the indexes of the played pits, in order
+     * @param count the number of moves
+     * @param buffer the buffer to write, with at least recordBytes(count) remaining
+     */
+    public static void encodeRecord(KalahMode mode, boolean decided, int[] moves, int count, ByteBuffer buffer) {
+	if (mode == null) {
+	    throw new IllegalArgumentException("Only the standard modes can be encoded");
+	}
+	if (count < 0 || count > MAX_RECORD_MOVES) {
+	    throw new IllegalArgumentException("count must be between 0 and " + MAX_RECORD_MOVES);
+	}
+	buffer.put((byte) (mode.ordinal() | (decided ? RECORD_DECIDED : 0)));
+	buffer.putShort((short) count);
+	long bits = 0;
+	int used = 0;
+	for (int i = 0; i < count; i++) {
+	    if (moves[i] < 0 || moves[i] >= KalahBoard.PITS) {
+		throw new IllegalArgumentException("moves must be between 0 and " + (KalahBoard.PITS - 1));
+	    }
+	    bits |= (long) moves[i] << used;
+	    used += MOVE_BITS;
+	    while (used >= Byte.SIZE) {
+		buffer.put((byte) bits);
+		bits >>>= Byte.SIZE;
+		used -= Byte.SIZE;
+	    }
+	}
+	if (used > 0) {
+	    buffer.put((byte) bits);
+	}
+    }
+
+    /**
+     * Reads a record and replays it
+     *
+     * @param buffer the buffer to read
+     * @return the game after the moves of the record, started
+     * @throws KalahException if a move comes after the end of the game
+     * @throws KalahIlegalMoveException if a move is illegal
+     * @throws IllegalArgumentException if the bytes are not a valid record
+     */
+    public static KalahGame decodeRecord(ByteBuffer buffer) throws KalahException, KalahIlegalMoveException {
+	KalahMode mode = getRecordMode(buffer);
+	if (mode == null) {
+	    throw new IllegalArgumentException("Invalid mode: " + (buffer.get(buffer.position()) & 0xFF & ~RECORD_DECIDED));
+	}
+	KalahGame game = new KalahGame(mode);
+	game.setFinishWhenDecided(isRecordDecided(buffer));
+	game.start();
+	int[] moves = new int[getRecordMoves(buffer)];
+	readRecord(buffer, moves);
+	for (int pit : moves) {
+	    game.move(pit);
+	}
+	return game;
+    }
+
+    /**
+     * Reads a position, checking that it could happen in a game
+     *
+     * @return the status ordinal, with the mode ordinal above its two bits and 1 above them if the game finishes when
+     * decided
+     */
+    private static int read(long low, long high, KalahBoard board) {
+	int total = 0;
+	for (int square = 0; square < SQUARES; square++) {
+	    long bits = square < LOW_SQUARES ? low >>> (square * STONE_BITS)
+		    : high >>> ((square - LOW_SQUARES) * STONE_BITS);
+	    total += (int) (bits & STONE_MASK);
+	}
+	int side = (int) (high >>> SIDE_SHIFT) & 0x1;
+	int status = (int) (high >>> STATUS_SHIFT) & 0x3;
+	int mode = (int) (high >>> MODE_SHIFT) & 0x3;
+	boolean decided = (low >>> DECIDED_SHIFT & 1L) != 0;
+	if (mode >= MODES.length || high >>> (MODE_SHIFT + 2) != 0) {
+	    throw new IllegalArgumentException("Invalid mode: " + mode);
+	}
+	if (total != 2 * KalahBoard.PITS * MODES[mode].stones()) {
+	    throw new IllegalArgumentException("Wrong number of stones for " + MODES[mode] + ": " + total);
+	}
+	for (int square = 0; square < SQUARES; square++) {
+	    long bits = square < LOW_SQUARES ? low >>> (square * STONE_BITS)
+		    : high >>> ((square - LOW_SQUARES) * STONE_BITS);
+	    board.set(square, (int) (bits & STONE_MASK));
+	}
+	board.setSideToMove(side);
+	KalahStatus decoded = STATUSES[status];
+	boolean valid;
+	switch (decoded) {
+	    case INIT:
+		valid = side == KalahBoard.SIDE_A && isInitial(board, MODES[mode]);
+		break;
+	    case FINISHED:
+		valid = board.isFinished();
+		break;
+	    default:
+		valid = !board.isFinished() && side == (decoded == KalahStatus.PLAYINGA ? KalahBoard.SIDE_A : KalahBoard.SIDE_B)
+			&& !(decided && board.isDecided());
+	}
+	if (!valid) {
+	    throw new IllegalArgumentException("Status " + decoded + " does not match the board");
+	}
+	return (decided ? 1 : 0) << 4 | mode << 2 | status;
+    }
+
+    /**
+     * Check if a board is the one a game of a mode starts with
+     */
+    private static boolean isInitial(KalahBoard board, KalahMode mode) {
+	for (int side = KalahBoard.SIDE_A; side <= KalahBoard.SIDE_B; side++) {
+	    if (board.getHouse(side) != 0) {
+		return false;
+	    }
+	    for (int i = 0; i < KalahBoard.PITS; i++) {
+		if (board.getPit(side, i) != mode.stones()) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    private static long readHigh(ByteBuffer buffer) {
+	return (buffer.getInt() & 0xFFFFFFFFL) << Byte.SIZE | buffer.get() & 0xFFL;
+    }
+
+}
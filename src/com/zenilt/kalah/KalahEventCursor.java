@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+/**
+ * Reads the events of a KalahEventStream in order, one cursor per watcher.
+ *
+ * Call next() to move to the next event, and read it with the getters until the following call. The cursor only keeps
+ * the packed event, so reading does not allocate, and the changed squares are worked out from the move and the rules
+ * when getDeltas is called. A cursor must be used by one thread at a time.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahEventCursor {
+
+    private final KalahEventStream stream;
+    private long sequence;
+    private long current;
+    private long missed;
+
+    /**
+     * Constructor with the first event to read
+     */
+    KalahEventCursor(KalahEventStream stream, long sequence) {
+	this.stream = stream;
+	this.sequence = sequence;
+	this.current = KalahBoard.ILEGAL_MOVE;
+    }
+
+    /**
+     * Moves to the next event
+     *
+     * @return true if there is a new event to read, false if the cursor is up to date
+     */
+    public boolean next() {
+	while (true) {
+	    long published = stream.getPublished();
+	    if (sequence >= published) {
+		return false;
+	    }
+	    if (published - sequence > stream.getCapacity()) {
+		//the events were overwritten before this cursor read them
+		missed += published - stream.getCapacity() - sequence;
+		sequence = published - stream.getCapacity();
+	    }
+	    long data = stream.read(sequence);
+	    if (data != KalahEventStream.WRITING) {
+		current = data;
+		sequence++;
+		return true;
+	    }
+	    //the producer wrapped around while reading, skip to the events still kept
+	    missed++;
+	    sequence++;
+	}
+    }
+
+    /**
+     * Gets the sequence number of the event
+     *
+     * @return the number of events published before it
+     */
+    public long getSequence() {
+	return sequence - 1;
+    }
+
+    /**
+     * Gets the number of events overwritten before this cursor could read them
+     *
+     * @return the number of events skipped
+     */
+    public long getMissed() {
+	return missed;
+    }
+
+    /**
+     * Gets the move as packed by KalahBoard.play, to be read with the static methods of KalahBoard
+     *
+     * @return the move
+     */
+    public long getMove() {
+	return KalahEventStream.getMove(current);
+    }
+
+    /**
+     * Gets the index of the pit played
+     *
+     * @return the index of the pit
+     */
+    public int getPitIndex() {
+	return KalahBoard.getPitIndex(current);
+    }
+
+    /**
+     * Gets the side that played the move
+     *
+     * @return SIDE_A or SIDE_B
+     */
+    public int getSide() {
+	return KalahBoard.getSide(current);
+    }
+
+    /**
+     * Gets the kind of move
+     *
+     * @return CONTINUE, STEAL or PLAYAGAIN, CONTINUE for sweeps
+     */
+    public KalahMove getKind() {
+	return KalahBoard.getMove(current);
+    }
+
+    /**
+     * Gets the stones taken from the opponent
+     *
+     * @return the stones of the opposite pit captured by a STEAL, 0 for other moves
+     */
+    public int getCaptured() {
+	return KalahBoard.getCaptured(current);
+    }
+
+    /**
+     * Gets the status of the game after the event
+     *
+     * @return the game status
+     */
+    public KalahStatus getStatus() {
+	return KalahEventStream.getStatus(current);
+    }
+
+    /**
+     * Check if the event is a move taken back, its deltas undo the ones of the move
+     *
+     * @return true for undo(), false for moves played
+     */
+    public boolean isUndo() {
+	return KalahEventStream.isUndo(current);
+    }
+
+    /**
+     * Check if the event moved the stones of a pit to the house of its side, after the move that finished a game set up
+     * with KalahGame.setFinishWhenDecided. The pit is the one of getSide() and getPitIndex(), and the deltas move its
+     * stones, or put them back if the event is an undo
+     *
+     * @return true for the pits swept at the end of the game, false for moves
+     */
+    public boolean isSweep() {
+	return KalahEventStream.isSweep(current);
+    }
+
+    /**
+     * Gets how many stones each square gained or lost with the event
+     *
+     * @param deltas where to write the changes, with one element per square in sowing order: the pits of player A, the
+     * house of player A, the pits of player B and the house of player B
+     */
+    public void getDeltas(int[] deltas) {
+	KalahRules rules = stream.getRules();
+	int pits = rules.getPits();
+	int squares = rules.squares;
+	for (int i = 0; i < squares; i++) {
+	    deltas[i] = 0;
+	}
+	int side = getSide();
+	int square = side * (pits + 1) + getPitIndex();
+	int stones = KalahBoard.getStones(current);
+	int sign = isUndo() ? -1 : 1;
+	if (isSweep()) {
+	    deltas[square] -= sign * stones;
+	    deltas[side * (pits + 1) + pits] += sign * stones;
+	    return;
+	}
+	int opponentHouse = (1 - side) * (pits + 1) + pits;
+	int laps = rules.laps(stones);
+	int remaining = stones - laps * (squares - 1);
+	deltas[square] -= sign * stones;
+	for (int i = 0, next = square; i < squares - 1; i++) {
+	    next = next == squares - 1 ? 0 : next + 1;
+	    if (next == opponentHouse) {
+		next = next == squares - 1 ? 0 : next + 1;
+	    }
+	    deltas[next] += sign * (i < remaining ? laps + 1 : laps);
+	}
+	if (getKind() == KalahMove.STEAL) {
+	    int last = rules.landing(square, stones);
+	    int captured = getCaptured();
+	    deltas[last] -= sign;
+	    deltas[2 * pits - last] -= sign * captured;
+	    deltas[side * (pits + 1) + pits] += sign * (1 + captured);
+	}
+    }
+
+}
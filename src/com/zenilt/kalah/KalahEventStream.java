@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Events of the moves of a game, for spectators, replays and analytics that follow it from other threads.
+ *
+ * The game publishes one event per move played and per move taken back. When a game that finishes as soon as it is
+ * decided moves the stones left in the pits to the houses, it also publishes one sweep event per pit emptied after the
+ * move, and the same events as taken back before undoing it, so the events alone keep a copy of the board. The events
+ * are kept in a ring allocated when the stream is created, two longs per event: its sequence number and the move as
+ * packed by KalahBoard.play with the new status of the game. Publishing writes the two longs and nothing else, whatever
+ * the number of watchers, and never allocates.
+ *
+ * Each watcher reads with its own KalahEventCursor, without locks. The ring keeps the last events only: a cursor that
+ * falls behind by more than the capacity skips the events overwritten and counts them as missed.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahEventStream {
+
+    /**
+     * Number of events kept by the streams of KalahGame
+     */
+    public static final int CAPACITY = 256;
+
+    static final long WRITING = -1L;
+
+    private static final KalahStatus[] STATUSES = KalahStatus.values();
+    private static final int STATUS_SHIFT = 24;
+    private static final int UNDO_SHIFT = 26;
+    private static final int SWEEP_SHIFT = 27;
+
+    private final KalahRules rules;
+    private final AtomicLongArray ring;
+    private final int mask;
+    private final AtomicLong published;
+
+    /**
+     * Constructor with the rules of the game and the number of events to keep
+     *
+     * @param rules the rules of the game, used by the cursors to find out the changed squares
+     * @param capacity the number of events kept, rounded up to a power of 2
+     */
+    public KalahEventStream(KalahRules rules, int capacity) {
+	if (capacity < 1 || capacity > 1 << 28) {
+	    throw new IllegalArgumentException("capacity must be between 1 and " + (1 << 28));
+	}
+	int size = Integer.highestOneBit(capacity * 2 - 1);
+	this.rules = rules;
+	this.ring = new AtomicLongArray(2 * size);
+	this.mask = size - 1;
+	this.published = new AtomicLong();
+	for (int i = 0; i < size; i++) {
+	    ring.set(2 * i, WRITING);
+	}
+    }
+
+    /**
+     * Gets the rules of the game
+     *
+     * @return the rules
+     */
+    public KalahRules getRules() {
+	return rules;
+    }
+
+    /**
+     * Gets the number of events kept
+     *
+     * @return the capacity of the ring
+     */
+    public int getCapacity() {
+	return mask + 1;
+    }
+
+    /**
+     * Gets the number of events published since the stream was created
+     *
+     * @return the sequence number of the next event
+     */
+    public long getPublished() {
+	return published.get();
+    }
+
+    /**
+     * Creates a cursor positioned after the last event published, it can be used from any thread
+     *
+     * @return the cursor, it reads the events published from now on
+     */
+    public KalahEventCursor subscribe() {
+	return new KalahEventCursor(this, getPublished());
+    }
+
+    /**
+     * Creates a cursor positioned at the oldest event still kept, it can be used from any thread
+     *
+     * @return the cursor, it reads the events kept and the ones published from now on
+     */
+    public KalahEventCursor replay() {
+	return new KalahEventCursor(this, Math.max(0, getPublished() - getCapacity()));
+    }
+
+    /**
+     * Publishes a move, called by the thread of the game only
+     *
+     * @param move the value returned by KalahBoard.play, or by KalahBoard.sweptPit for a sweep
+     * @param status the status of the game after the move
+     * @param undo true if the move was taken back, or the stones of the pit were put back
+     * @param sweep true if the stones of a pit were moved to the house of its side at the end of the game
+     */
+    void publish(long move, KalahStatus status, boolean undo, boolean sweep) {
+	long sequence = published.get();
+	int slot = 2 * ((int) sequence & mask);
+	//readers that see the old sequence after the data was replaced would take it for the old event, the ordered
+	//writes keep every write visible after the ones before it without the cost of a full fence
+	ring.lazySet(slot, WRITING);
+	ring.lazySet(slot + 1, move | (long) status.ordinal() << STATUS_SHIFT | (undo ? 1L : 0L) << UNDO_SHIFT
+		| (sweep ? 1L : 0L) << SWEEP_SHIFT);
+	ring.lazySet(slot, sequence);
+	published.lazySet(sequence + 1);
+    }
+
+    /**
+     * Reads the data of an event
+     *
+     * @return the data, or WRITING if the event is not available, being written or already overwritten
+     */
+    long read(long sequence) {
+	int slot = 2 * ((int) sequence & mask);
+	if (ring.get(slot) != sequence) {
+	    return WRITING;
+	}
+	long data = ring.get(slot + 1);
+	return ring.get(slot) == sequence ? data : WRITING;
+    }
+
+    static long getMove(long data) {
+	return data & ((1L << STATUS_SHIFT) - 1);
+    }
+
+    static KalahStatus getStatus(long data) {
+	return STATUSES[(int) (data >>> STATUS_SHIFT) & 0x3];
+    }
+
+    static boolean isUndo(long data) {
+	return (data >>> UNDO_SHIFT & 1L) != 0;
+    }
+
+    static boolean isSweep(long data) {
+	return (data >>> SWEEP_SHIFT & 1L) != 0;
+    }
+
+}
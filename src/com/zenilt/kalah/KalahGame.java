@@ -25,7 +25,7 @@ package com.zenilt.kalah;
 
 import com.zenilt.kalah.exception.KalahException;
 import com.zenilt.kalah.exception.KalahIlegalMoveException;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * This is the main class used to instantiate the game.
@@ -34,6 +34,14 @@ import java.util.LinkedList;
  *
  * Use move(Integer pitIndex) to input the players' movements.
  *
+ * Use undo() and redo() to step back and forth through the moves played.
+ *
+ * Use getEvents() to follow the moves from other threads without polling the board.
+ *
+ * Use setMetrics(KalahMetrics metrics) to count the moves, their latency and the games played.
+ *
+ * Use setFinishWhenDecided(boolean decided) to end the games as soon as the winner is known.
+ *
  * Checkout getStatus() to retrieve the game status.
  *
  * Checkout getPlayerA() and getPlayerB() to get a representation of each side of the board.
@@ -44,14 +52,23 @@ import java.util.LinkedList;
  */
 public class KalahGame {
 
-    private static final Integer PITS = 6;
     private static final String NAMEA = "Player A";
     private static final String NAMEB = "Player B";
+    private static final int HISTORY_SIZE = 64;
 
     private final KalahPlayer playerA;
     private final KalahPlayer playerB;
-    private final KalahMode mode;
+    final KalahBoard board;
     private KalahStatus status;
+    private long[] history;
+    private int moves;
+    private int redoMoves;
+    private KalahEventStream events;
+    private KalahMetrics metrics;
+    private int tries;
+    private boolean lengthRecorded;
+    private boolean finishWhenDecided;
+    private KalahBoard beforeSweep;
 
     /**
      * Constructor with game mode
@@ -59,10 +76,30 @@ public class KalahGame {
      * @param mode the mode to construct the game
      */
     public KalahGame(KalahMode mode) {
-	this.mode = mode;
-	this.playerA = new KalahPlayer(NAMEA, this.mode, PITS);
-	this.playerB = new KalahPlayer(NAMEB, this.mode, PITS);
-	this.status = KalahStatus.INIT;
+	this(new KalahBoard(mode), KalahStatus.INIT);
+    }
+
+    /**
+     * Constructor with the rules of a variant, such as a different number of pits
+     *
+     * @param rules the rules to construct the game
+     */
+    public KalahGame(KalahRules rules) {
+	this(new KalahBoard(rules), KalahStatus.INIT);
+    }
+
+    /**
+     * Constructor for a game already in progress, used by KalahCodec
+     *
+     * @param board the board of the game, owned by the game from now on
+     * @param status the game status
+     */
+    KalahGame(KalahBoard board, KalahStatus status) {
+	this.board = board;
+	this.playerA = new KalahPlayer(NAMEA, board.squares, board.pitSquare(KalahBoard.SIDE_A, 0), board.getPits());
+	this.playerB = new KalahPlayer(NAMEB, board.squares, board.pitSquare(KalahBoard.SIDE_B, 0), board.getPits());
+	this.status = status;
+	this.history = new long[HISTORY_SIZE];
     }
 
     /**
@@ -74,6 +111,24 @@ public class KalahGame {
 	return status;
     }
 
+    /**
+     * Gets the mode the game was constructed with
+     *
+     * @return the game mode, or null if it was constructed with rules that are not the ones of a mode
+     */
+    public KalahMode getMode() {
+	return board.getRules().getMode();
+    }
+
+    /**
+     * Gets the rules of the game
+     *
+     * @return the rules
+     */
+    public KalahRules getRules() {
+	return board.getRules();
+    }
+
     /**
      * Gets the first player object
      *
@@ -92,6 +147,15 @@ public class KalahGame {
 	return playerB;
     }
 
+    /**
+     * Gets a copy of the current board, engines can play and undo moves on it without affecting the game
+     *
+     * @return a copy of the board
+     */
+    public KalahBoard getBoard() {
+	return new KalahBoard(board);
+    }
+
     /**
      * Starts the game
      *
@@ -102,6 +166,9 @@ public class KalahGame {
 	    throw new KalahException();
 	}
 	status = KalahStatus.PLAYINGA;
+	if (metrics != null) {
+	    metrics.started();
+	}
     }
 
     /**
@@ -112,13 +179,49 @@ public class KalahGame {
      * @throws KalahIlegalMoveException if the move is illegal, such as there are no stones in the selected pit, or the index is out of range
      */
     public void move(Integer pitIndex) throws KalahException, KalahIlegalMoveException {
+	switch (tryMove(pitIndex)) {
+	    case NOTPLAYING: {
+		throw new KalahException();
+	    }
+	    case ILEGAL: {
+		throw new KalahIlegalMoveException();
+	    }
+	}
+    }
+
+    /**
+     * Generates a move for the current player with all the stones in the choosen pit, without throwing exceptions for
+     * moves that can't be done
+     *
+     * @param pitIndex the index of the pit
+     * @return the type of move, ILEGAL if there are no stones in the selected pit or the index is out of range, or
+     * NOTPLAYING if the game has not been started or it's already finished, in both cases nothing is moved
+     */
+    public KalahMove tryMove(int pitIndex) {
+	if (metrics == null) {
+	    return play(pitIndex);
+	}
+	KalahMove move;
+	if ((tries++ & metrics.samplingMask) != 0) {
+	    move = play(pitIndex);
+	    metrics.moved(move);
+	} else {
+	    long start = System.nanoTime();
+	    move = play(pitIndex);
+	    metrics.moved(move, System.nanoTime() - start);
+	}
+	return move;
+    }
+
+    private KalahMove play(int pitIndex) {
 	if (status != KalahStatus.PLAYINGA && status != KalahStatus.PLAYINGB) {
-	    throw new KalahException();
+	    return KalahMove.NOTPLAYING;
 	}
-	KalahMove move = processMove(pitIndex);
+	long played = board.play(pitIndex);
+	KalahMove move = KalahBoard.getMove(played);
 	switch (move) {
 	    case ILEGAL: {
-		throw new KalahIlegalMoveException();
+		return move;
 	    }
 	    case CONTINUE:
 	    case STEAL: {
@@ -131,105 +234,203 @@ public class KalahGame {
 	}
 	if (gameFinished()) {
 	    status = KalahStatus.FINISHED;
+	    if (finishWhenDecided) {
+		beforeSweep = new KalahBoard(board);
+		board.sweep();
+	    }
 	}
+	if (moves == history.length) {
+	    history = Arrays.copyOf(history, 2 * moves);
+	}
+	history[moves++] = played;
+	redoMoves = moves;
+	if (metrics != null && status == KalahStatus.FINISHED) {
+	    //a game that finishes again after taking back its last move is no longer live, but its length was recorded
+	    if (lengthRecorded) {
+		metrics.left();
+	    } else {
+		metrics.finished(getMode(), moves);
+		lengthRecorded = true;
+	    }
+	}
+	if (events != null) {
+	    events.publish(played, status, false, false);
+	    if (beforeSweep != null) {
+		publishSweep(false);
+	    }
+	}
+	return move;
     }
 
     /**
-     * Gets the player that won the match
+     * Takes back the last move, the game goes back to the turn of the player that made it
      *
-     * @return the player that won the match, or null if there is a tie
-     * @throws KalahException in case the game has not finished yet
+     * @throws KalahException if there are no moves to take back
      */
-    public KalahPlayer getWinner() throws KalahException {
-	if (status != KalahStatus.FINISHED) {
+    public void undo() throws KalahException {
+	if (moves == 0) {
 	    throw new KalahException();
 	}
-	if (playerA.getHouse().size() > playerB.getHouse().size()) {
-	    return playerA;
+	if (beforeSweep != null) {
+	    if (events != null) {
+		publishSweep(true);
+	    }
+	    board.copyFrom(beforeSweep);
+	    beforeSweep = null;
 	}
-	if (playerB.getHouse().size() > playerA.getHouse().size()) {
-	    return playerB;
+	board.undo(history[--moves]);
+	if (metrics != null && status == KalahStatus.FINISHED) {
+	    metrics.resumed();
+	}
+	status = board.getSideToMove() == KalahBoard.SIDE_A ? KalahStatus.PLAYINGA : KalahStatus.PLAYINGB;
+	if (events != null) {
+	    events.publish(history[moves], status, true, false);
 	}
-	return null;
     }
 
-    private KalahMove processMove(Integer pitIndex) {
-	if (!validMove(pitIndex)) {
-	    return KalahMove.ILEGAL;
-	}
-	KalahPlayer currentPlayer = movingPlayer();
-	KalahPit pit = currentPlayer.getPit(pitIndex);
-	LinkedList<KalahStone> stones = pit.takeStones();
-	KalahMove move = KalahMove.CONTINUE;
-	Boolean isOponentArea = false;
-	while (!stones.isEmpty()) {
-	    KalahStone stone = stones.remove();
-	    pitIndex++;
-	    move = KalahMove.CONTINUE;
-	    pit = currentPlayer.getPit(pitIndex);
-	    if (pit != null) {
-		if (!isOponentArea && pit.isEmpty()) {
-		    move = KalahMove.STEAL;
-		}
-		pit.addStone(stone);
-	    } else {
-		if (!isOponentArea) {
-		    KalahHouse housePit = currentPlayer.getHouse();
-		    housePit.addStone(stone);
-		    move = KalahMove.PLAYAGAIN;
-		} else {
-		    //add the stone back to play at opponet's area in next iteration
-		    stones.add(stone);
-		}
-		currentPlayer = opponentPlayer(currentPlayer);
-		isOponentArea = !isOponentArea;
-		pitIndex = -1;
+    /**
+     * Publishes an event for every pit emptied by the sweep of a game that finished when decided, or put back, in the
+     * reverse order, before undoing the move that finished it
+     */
+    private void publishSweep(boolean undo) {
+	int pits = board.getPits();
+	for (int i = 0; i < 2 * pits; i++) {
+	    int square = undo ? 2 * pits - 1 - i : i;
+	    int side = square / pits;
+	    int stones = beforeSweep.getPit(side, square % pits);
+	    if (stones > 0) {
+		events.publish(KalahBoard.sweptPit(side, square % pits, stones), KalahStatus.FINISHED, undo, true);
 	    }
 	}
-	if (move == KalahMove.STEAL) {
-	    steal(pitIndex);
-	}
-	return move;
     }
 
-    private Boolean validMove(Integer pitIndex) {
-	if (pitIndex < 0 || pitIndex >= KalahGame.PITS) {
-	    return false;
+    /**
+     * Plays again the last move taken back
+     *
+     * @throws KalahException if no move was taken back since the last move
+     */
+    public void redo() throws KalahException {
+	if (moves == redoMoves) {
+	    throw new KalahException();
 	}
-	return !movingPlayer().getPit(pitIndex).isEmpty();
+	int redo = redoMoves;
+	play(KalahBoard.getPitIndex(history[moves]));
+	redoMoves = redo;
     }
 
-    private void steal(Integer pitIndex) {
-	KalahPlayer currentPlayer = movingPlayer();
-	KalahHouse currentPlayerHouse = currentPlayer.getHouse();
-	LinkedList<KalahStone> stones = currentPlayer.getPit(pitIndex).takeStones();
-	for (KalahStone stone : stones) {
-	    currentPlayerHouse.addStone(stone);
+    /**
+     * Check if there is a move to take back
+     *
+     * @return true if undo() can be called
+     */
+    public boolean canUndo() {
+	return moves > 0;
+    }
+
+    /**
+     * Check if there is a move taken back to play again
+     *
+     * @return true if redo() can be called
+     */
+    public boolean canRedo() {
+	return moves < redoMoves;
+    }
+
+    /**
+     * Gets the number of moves played, not counting the ones taken back
+     *
+     * @return the number of moves
+     */
+    public int getMoveCount() {
+	return moves;
+    }
+
+    /**
+     * Gets the pits played, not counting the moves taken back
+     *
+     * @return the index of the pit of each move, in order
+     */
+    public int[] getMoves() {
+	int[] pits = new int[moves];
+	for (int i = 0; i < moves; i++) {
+	    pits[i] = KalahBoard.getPitIndex(history[i]);
 	}
-	KalahPlayer oponentPlayer = opponentPlayer(currentPlayer);
-	stones = oponentPlayer.getPit((PITS - 1) - pitIndex).takeStones();
-	for (KalahStone stone : stones) {
-	    currentPlayerHouse.addStone(stone);
+	return pits;
+    }
+
+    /**
+     * Gets the stream of the events of this game, an event is published for every move played, including redo(), and
+     * for every undo(). The stream is created on the first call, games nobody watches publish nothing.
+     *
+     * Call it from the thread that plays the game, the cursors of the stream can then be handed to other threads.
+     *
+     * @return the stream of events
+     */
+    public KalahEventStream getEvents() {
+	if (events == null) {
+	    events = new KalahEventStream(board.getRules(), KalahEventStream.CAPACITY);
 	}
+	return events;
     }
 
-    private KalahPlayer movingPlayer() {
-	switch (status) {
-	    case PLAYINGA: {
-		return playerA;
-	    }
-	    case PLAYINGB: {
-		return playerB;
-	    }
+    /**
+     * Sets the metrics that count the moves of this game, they can be shared with other games. Moves played again with
+     * redo() are not counted, and a game is counted as finished once even if its last move is taken back and played
+     * again
+     *
+     * @param metrics the metrics, or null to stop counting
+     */
+    public void setMetrics(KalahMetrics metrics) {
+	boolean playing = status == KalahStatus.PLAYINGA || status == KalahStatus.PLAYINGB;
+	if (playing && this.metrics != null) {
+	    this.metrics.left();
 	}
-	return null;
+	if (playing && metrics != null) {
+	    metrics.resumed();
+	}
+	this.metrics = metrics;
     }
 
-    private KalahPlayer opponentPlayer(KalahPlayer player) {
-	if (player.getName().equals(NAMEA)) {
+    /**
+     * Sets whether the game ends as soon as its result is decided, when a house holds more than half of the stones, and
+     * not only when a side runs out of stones. When the game ends in this mode, the stones left in the pits of each side
+     * are moved to its house, as in the standard rules. Both checks read the stones kept by the board, so they cost the
+     * same whatever the number of pits.
+     *
+     * @param decided true to end the game as soon as the winner is known
+     */
+    public void setFinishWhenDecided(boolean decided) {
+	this.finishWhenDecided = decided;
+    }
+
+    /**
+     * Check if the game ends as soon as its result is decided
+     *
+     * @return true if it does, false if it goes on until a side runs out of stones
+     */
+    public boolean isFinishWhenDecided() {
+	return finishWhenDecided;
+    }
+
+    /**
+     * Gets the player that won the match
+     *
+     * @return the player that won the match, or null if there is a tie
+     * @throws KalahException in case the game has not finished yet
+     */
+    public KalahPlayer getWinner() throws KalahException {
+	if (status != KalahStatus.FINISHED) {
+	    throw new KalahException();
+	}
+	int houseA = board.getHouse(KalahBoard.SIDE_A);
+	int houseB = board.getHouse(KalahBoard.SIDE_B);
+	if (houseA > houseB) {
+	    return playerA;
+	}
+	if (houseB > houseA) {
 	    return playerB;
 	}
-	return playerA;
+	return null;
     }
 
     private void changePlayerTurn() {
@@ -246,7 +447,7 @@ public class KalahGame {
     }
 
     private boolean gameFinished() {
-	return !(this.playerA.hasStones() && this.playerB.hasStones());
+	return board.isFinished() || finishWhenDecided && board.isDecided();
     }
 
 }
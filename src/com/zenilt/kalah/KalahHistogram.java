@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+/**
+ * Distribution of the values recorded by KalahMetrics, such as the latency of the moves or the length of the games.
+ *
+ * The values are counted in buckets that grow with the value, 8 buckets for each power of 2, so any value is known
+ * within 12.5% of it whatever its scale. The percentiles are the highest value of their bucket, or the maximum recorded
+ * if it is lower.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahHistogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    /**
+     * Constructor with the counts of every bucket
+     */
+    KalahHistogram(long[] counts, long sum, long max) {
+	long total = 0;
+	for (long value : counts) {
+	    total += value;
+	}
+	this.counts = counts;
+	this.count = total;
+	this.sum = sum;
+	this.max = max;
+    }
+
+    /**
+     * Gets the number of values recorded
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Gets the mean of the values recorded
+     *
+     * @return the mean, NaN if there are no values
+     */
+    public double getMean() {
+	return (double) sum / count;
+    }
+
+    /**
+     * Gets the highest value recorded
+     *
+     * @return the highest value, 0 if there are no values
+     */
+    public long getMax() {
+	return max;
+    }
+
+    /**
+     * Gets a percentile of the values recorded
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the value that this percentage of the values don't exceed, 0 if there are no values
+     */
+    public long getPercentile(double percentile) {
+	if (percentile < 0 || percentile > 100) {
+	    throw new IllegalArgumentException("percentile must be between 0 and 100");
+	}
+	long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+	long seen = 0;
+	for (int i = 0; i < counts.length; i++) {
+	    seen += counts[i];
+	    if (seen >= rank) {
+		return Math.min(highest(i), max);
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * Gets the bucket of a value
+     */
+    static int bucket(long value) {
+	if (value < SUB_BUCKETS) {
+	    return (int) Math.max(value, 0);
+	}
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	return (exponent - SUB_BITS) * SUB_BUCKETS + (int) (value >>> (exponent - SUB_BITS));
+    }
+
+    /**
+     * Gets the highest value of a bucket
+     */
+    static long highest(int bucket) {
+	if (bucket < SUB_BUCKETS) {
+	    return bucket;
+	}
+	int shift = bucket / SUB_BUCKETS - 1;
+	long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+	return String.format("count=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d", count, getMean(), getPercentile(50),
+		getPercentile(99), getPercentile(99.9), max);
+    }
+
+}
@@ -23,8 +23,6 @@
  */
 package com.zenilt.kalah;
 
-import java.util.ArrayList;
-
 /**
  * Represents the house or kalah where the players accumulate the stones.
  *
@@ -32,31 +30,34 @@ import java.util.ArrayList;
  */
 public class KalahHouse {
 
-    private final ArrayList<KalahStone> stones;
+    private final int[] squares;
+    private final int square;
 
     /**
      * Constructor
      */
     public KalahHouse() {
-	this.stones = new ArrayList<>();
+	this(new int[1], 0);
     }
 
     /**
-     * Gets how many stones are in this house
+     * Constructor for a view over a square of a board
      *
-     * @return the number of stones in this house
+     * @param squares the squares of the board
+     * @param square the index of the square of this house
      */
-    public Integer size() {
-	return stones.size();
+    KalahHouse(int[] squares, int square) {
+	this.squares = squares;
+	this.square = square;
     }
 
     /**
-     * Adds a stone to the house
+     * Gets how many stones are in this house
      *
-     * @param stone the stone to add to the house
+     * @return the number of stones in this house
      */
-    protected void addStone(KalahStone stone) {
-	stones.add(stone);
+    public Integer size() {
+	return squares[square];
     }
 
 }
@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of the games that use it, for monitoring the library in production.
+ *
+ * Set it to the games to watch with KalahGame.setMetrics, one instance can be shared by any number of games on any
+ * number of threads. It counts the moves of each kind, the games started, finished and being played, and the length of
+ * the games finished in each mode. Games without metrics pay a null check per move.
+ *
+ * Reading the clock costs more than the rest of a move, so only one move in every few of each game is timed, 16 by
+ * default, which is enough for the percentiles of the latency.
+ *
+ * Every counter and every bucket of the histograms is a LongAdder, which spreads the updates of different threads over
+ * different cells, so recording never locks and threads don't slow each other down. Reading adds the cells up, which is
+ * slower, so call snapshot() to read all the values at once, or register() to export them to JMX, where each attribute
+ * only adds up the cells it needs and only the percentiles copy a histogram.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahMetrics implements KalahMetricsMXBean {
+
+    /**
+     * Domain of the names registered in JMX
+     */
+    public static final String DOMAIN = "com.zenilt.kalah";
+    /**
+     * One move in this number is timed, by default
+     */
+    public static final int LATENCY_SAMPLING = 16;
+
+    private static final KalahMove[] MOVES = KalahMove.values();
+    private static final KalahMode[] MODES = KalahMode.values();
+
+    private final LongAdder[] moves;
+    private final LongAdder gamesStarted;
+    private final LongAdder liveGames;
+    private final Recorder moveLatency;
+    private final Recorder[] gameLengths;
+    final int samplingMask;
+
+    /**
+     * Constructor with every counter at 0, timing one move in LATENCY_SAMPLING
+     */
+    public KalahMetrics() {
+	this(LATENCY_SAMPLING);
+    }
+
+    /**
+     * Constructor with every counter at 0
+     *
+     * @param sampling one move of each game in this number is timed, a power of 2, 1 to time every move
+     */
+    public KalahMetrics(int sampling) {
+	if (sampling < 1 || Integer.bitCount(sampling) != 1) {
+	    throw new IllegalArgumentException("sampling must be a power of 2");
+	}
+	this.samplingMask = sampling - 1;
+	this.moves = new LongAdder[MOVES.length];
+	for (int i = 0; i < moves.length; i++) {
+	    moves[i] = new LongAdder();
+	}
+	this.gamesStarted = new LongAdder();
+	this.liveGames = new LongAdder();
+	this.moveLatency = new Recorder();
+	this.gameLengths = new Recorder[MODES.length + 1];
+	for (int i = 0; i < gameLengths.length; i++) {
+	    gameLengths[i] = new Recorder();
+	}
+    }
+
+    /**
+     * Reads every counter and histogram
+     *
+     * @return the values read
+     */
+    public KalahMetricsSnapshot snapshot() {
+	long[] counts = new long[moves.length];
+	for (int i = 0; i < moves.length; i++) {
+	    counts[i] = moves[i].sum();
+	}
+	KalahHistogram[] lengths = new KalahHistogram[gameLengths.length];
+	for (int i = 0; i < lengths.length; i++) {
+	    lengths[i] = gameLengths[i].snapshot();
+	}
+	return new KalahMetricsSnapshot(counts, gamesStarted.sum(), liveGames.sum(), moveLatency.snapshot(), lengths);
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server, as com.zenilt.kalah:type=KalahMetrics,name=name
+     *
+     * @param name the name of the metrics, to tell apart several instances
+     * @return the name registered
+     * @throws JMException if the name is not valid or it is already registered
+     */
+    public ObjectName register(String name) throws JMException {
+	ObjectName objectName = objectName(name);
+	ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server
+     *
+     * @param name the name they were registered with
+     * @throws JMException if the name is not registered
+     */
+    public void unregister(String name) throws JMException {
+	ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+    }
+
+    @Override
+    public long getGamesStarted() {
+	return gamesStarted.sum();
+    }
+
+    @Override
+    public long getGamesFinished() {
+	long total = 0;
+	for (Recorder lengths : gameLengths) {
+	    total += lengths.getCount();
+	}
+	return total;
+    }
+
+    @Override
+    public long getLiveGames() {
+	return liveGames.sum();
+    }
+
+    @Override
+    public long getMoves() {
+	long total = 0;
+	for (LongAdder count : moves) {
+	    total += count.sum();
+	}
+	return total;
+    }
+
+    @Override
+    public Map<String, Long> getMoveCounts() {
+	Map<String, Long> counts = new LinkedHashMap<>();
+	for (KalahMove move : MOVES) {
+	    counts.put(move.name(), moves[move.ordinal()].sum());
+	}
+	return counts;
+    }
+
+    @Override
+    public double getIllegalMoveRate() {
+	long tried = getMoves() - moves[KalahMove.NOTPLAYING.ordinal()].sum();
+	return (double) moves[KalahMove.ILEGAL.ordinal()].sum() / tried;
+    }
+
+    @Override
+    public double getMoveLatencyMean() {
+	return moveLatency.getMean();
+    }
+
+    @Override
+    public long getMoveLatencyMedian() {
+	return moveLatency.snapshot().getPercentile(50);
+    }
+
+    @Override
+    public long getMoveLatency99() {
+	return moveLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getMoveLatency999() {
+	return moveLatency.snapshot().getPercentile(99.9);
+    }
+
+    @Override
+    public long getMoveLatencyMax() {
+	return moveLatency.getMax();
+    }
+
+    @Override
+    public Map<String, Double> getGameLengthMean() {
+	Map<String, Double> means = new LinkedHashMap<>();
+	for (int i = 0; i < gameLengths.length; i++) {
+	    means.put(name(i), gameLengths[i].getMean());
+	}
+	return means;
+    }
+
+    @Override
+    public Map<String, Long> getGameLengthMedian() {
+	return byMode(lengths -> lengths.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getGameLengthMax() {
+	Map<String, Long> maxima = new LinkedHashMap<>();
+	for (int i = 0; i < gameLengths.length; i++) {
+	    maxima.put(name(i), gameLengths[i].getMax());
+	}
+	return maxima;
+    }
+
+    /**
+     * Records a move tried, not timed
+     *
+     * @param move the kind of move
+     */
+    void moved(KalahMove move) {
+	moves[move.ordinal()].increment();
+    }
+
+    /**
+     * Records a move tried and timed
+     *
+     * @param move the kind of move
+     * @param nanos the time it took
+     */
+    void moved(KalahMove move, long nanos) {
+	moves[move.ordinal()].increment();
+	moveLatency.record(nanos);
+    }
+
+    /**
+     * Records a game started
+     */
+    void started() {
+	gamesStarted.increment();
+	liveGames.increment();
+    }
+
+    /**
+     * Records a game finished
+     *
+     * @param mode the mode of the game, null for other rules
+     * @param length the number of moves played
+     */
+    void finished(KalahMode mode, int length) {
+	liveGames.decrement();
+	gameLengths[index(mode)].record(length);
+    }
+
+    /**
+     * Records a game that is being played again, after undoing the move that finished it or after setting the metrics
+     * to a game in progress
+     */
+    void resumed() {
+	liveGames.increment();
+    }
+
+    /**
+     * Records a game in progress that stopped using these metrics, or that finished again after undoing the move that
+     * finished it, its length was already recorded
+     */
+    void left() {
+	liveGames.decrement();
+    }
+
+    /**
+     * Gets the index of the histogram of the lengths of a mode
+     */
+    static int index(KalahMode mode) {
+	return mode == null ? MODES.length : mode.ordinal();
+    }
+
+    private static String name(int index) {
+	return index == MODES.length ? KalahMetricsSnapshot.VARIANT : MODES[index].name();
+    }
+
+    private Map<String, Long> byMode(ToLongFunction<KalahHistogram> value) {
+	Map<String, Long> values = new LinkedHashMap<>();
+	for (int i = 0; i < gameLengths.length; i++) {
+	    values.put(name(i), value.applyAsLong(gameLengths[i].snapshot()));
+	}
+	return values;
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+	return new ObjectName(DOMAIN + ":type=KalahMetrics,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Histogram being recorded, one LongAdder per bucket
+     */
+    private static final class Recorder {
+
+	private final LongAdder[] counts = new LongAdder[KalahHistogram.BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Recorder() {
+	    for (int i = 0; i < counts.length; i++) {
+		counts[i] = new LongAdder();
+	    }
+	}
+
+	void record(long value) {
+	    counts[KalahHistogram.bucket(value)].increment();
+	    sum.add(value);
+	    max.accumulate(value);
+	}
+
+	long getCount() {
+	    long total = 0;
+	    for (LongAdder count : counts) {
+		total += count.sum();
+	    }
+	    return total;
+	}
+
+	double getMean() {
+	    return (double) sum.sum() / getCount();
+	}
+
+	long getMax() {
+	    return max.get();
+	}
+
+	KalahHistogram snapshot() {
+	    long[] values = new long[counts.length];
+	    for (int i = 0; i < counts.length; i++) {
+		values[i] = counts[i].sum();
+	    }
+	    return new KalahHistogram(values, sum.sum(), max.get());
+	}
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+import java.util.Map;
+
+/**
+ * Management interface of KalahMetrics, the attributes that JMX consoles show.
+ *
+ * Every attribute is read from a new snapshot, the latencies are in nanoseconds and the game lengths in moves, by mode.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public interface KalahMetricsMXBean {
+
+    /**
+     * Gets the number of games started
+     *
+     * @return the number of games
+     */
+    long getGamesStarted();
+
+    /**
+     * Gets the number of games finished
+     *
+     * @return the number of games
+     */
+    long getGamesFinished();
+
+    /**
+     * Gets the number of games started and not finished
+     *
+     * @return the number of games
+     */
+    long getLiveGames();
+
+    /**
+     * Gets the number of moves tried, illegal ones included
+     *
+     * @return the number of moves
+     */
+    long getMoves();
+
+    /**
+     * Gets the number of moves tried by kind
+     *
+     * @return the number of moves of every KalahMove
+     */
+    Map<String, Long> getMoveCounts();
+
+    /**
+     * Gets the fraction of the moves tried in games being played that were illegal
+     *
+     * @return the rate, from 0 to 1
+     */
+    double getIllegalMoveRate();
+
+    /**
+     * Gets the mean latency of the moves
+     *
+     * @return the mean, in nanoseconds
+     */
+    double getMoveLatencyMean();
+
+    /**
+     * Gets the median latency of the moves
+     *
+     * @return the median, in nanoseconds
+     */
+    long getMoveLatencyMedian();
+
+    /**
+     * Gets the 99th percentile of the latency of the moves
+     *
+     * @return the percentile, in nanoseconds
+     */
+    long getMoveLatency99();
+
+    /**
+     * Gets the 99.9th percentile of the latency of the moves
+     *
+     * @return the percentile, in nanoseconds
+     */
+    long getMoveLatency999();
+
+    /**
+     * Gets the highest latency of the moves
+     *
+     * @return the latency, in nanoseconds
+     */
+    long getMoveLatencyMax();
+
+    /**
+     * Gets the mean length of the games finished by mode, VARIANT for the games with other rules
+     *
+     * @return the mean number of moves of every mode
+     */
+    Map<String, Double> getGameLengthMean();
+
+    /**
+     * Gets the median length of the games finished by mode, VARIANT for the games with other rules
+     *
+     * @return the median number of moves of every mode
+     */
+    Map<String, Long> getGameLengthMedian();
+
+    /**
+     * Gets the longest game finished by mode, VARIANT for the games with other rules
+     *
+     * @return the highest number of moves of every mode
+     */
+    Map<String, Long> getGameLengthMax();
+
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+/**
+ * Values of the counters and histograms of a KalahMetrics at one point in time.
+ *
+ * The counters are read one after the other while the games go on, so values taken together, such as the moves of each
+ * kind, can be a few moves apart.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahMetricsSnapshot {
+
+    /**
+     * Name of the games with rules that are not the ones of a mode
+     */
+    public static final String VARIANT = "VARIANT";
+
+    private final long[] moves;
+    private final long gamesStarted;
+    private final long liveGames;
+    private final KalahHistogram moveLatency;
+    private final KalahHistogram[] gameLengths;
+
+    /**
+     * Constructor with the values read
+     */
+    KalahMetricsSnapshot(long[] moves, long gamesStarted, long liveGames, KalahHistogram moveLatency,
+	    KalahHistogram[] gameLengths) {
+	this.moves = moves;
+	this.gamesStarted = gamesStarted;
+	this.liveGames = liveGames;
+	this.moveLatency = moveLatency;
+	this.gameLengths = gameLengths;
+    }
+
+    /**
+     * Gets the number of moves tried, illegal ones and the ones in games not being played included
+     *
+     * @return the number of moves
+     */
+    public long getMoves() {
+	long total = 0;
+	for (long count : moves) {
+	    total += count;
+	}
+	return total;
+    }
+
+    /**
+     * Gets the number of moves tried of a kind
+     *
+     * @param move the kind of move, as returned by KalahGame.tryMove
+     * @return the number of moves
+     */
+    public long getMoves(KalahMove move) {
+	return moves[move.ordinal()];
+    }
+
+    /**
+     * Gets the fraction of the moves tried in games being played that were illegal
+     *
+     * @return the rate, from 0 to 1, NaN if no moves were tried
+     */
+    public double getIllegalMoveRate() {
+	return (double) getMoves(KalahMove.ILEGAL) / (getMoves() - getMoves(KalahMove.NOTPLAYING));
+    }
+
+    /**
+     * Gets the number of games started
+     *
+     * @return the number of games
+     */
+    public long getGamesStarted() {
+	return gamesStarted;
+    }
+
+    /**
+     * Gets the number of games finished, a game finished again after undoing and redoing its last move counts once
+     *
+     * @return the number of games
+     */
+    public long getGamesFinished() {
+	long total = 0;
+	for (KalahHistogram lengths : gameLengths) {
+	    total += lengths.getCount();
+	}
+	return total;
+    }
+
+    /**
+     * Gets the number of games started and not finished, games abandoned while playing count until they are finished
+     *
+     * @return the number of games
+     */
+    public long getLiveGames() {
+	return liveGames;
+    }
+
+    /**
+     * Gets the latency of the moves timed, from the call to KalahGame.tryMove or move until the move is recorded
+     *
+     * @return the distribution, in nanoseconds
+     */
+    public KalahHistogram getMoveLatency() {
+	return moveLatency;
+    }
+
+    /**
+     * Gets the length of the games finished in a mode
+     *
+     * @param mode the mode, or null for the games with rules that are not the ones of a mode
+     * @return the distribution, in moves
+     */
+    public KalahHistogram getGameLength(KalahMode mode) {
+	return gameLengths[KalahMetrics.index(mode)];
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder builder = new StringBuilder();
+	builder.append(String.format("games started=%d finished=%d live=%d%n", gamesStarted, getGamesFinished(),
+		liveGames));
+	builder.append(String.format("moves total=%d", getMoves()));
+	for (KalahMove move : KalahMove.values()) {
+	    builder.append(String.format(" %s=%d", move, getMoves(move)));
+	}
+	builder.append(String.format(" illegal rate=%.4f%n", getIllegalMoveRate()));
+	builder.append(String.format("move latency ns %s%n", moveLatency));
+	for (KalahMode mode : KalahMode.values()) {
+	    builder.append(String.format("game length %s %s%n", mode, getGameLength(mode)));
+	}
+	builder.append(String.format("game length %s %s%n", VARIANT, getGameLength(null)));
+	return builder.toString();
+    }
+
+}
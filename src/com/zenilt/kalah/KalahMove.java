@@ -46,7 +46,11 @@ public enum KalahMove {
     /**
      * The intended move ended up in the house, the player has an additional turn
      */
-    PLAYAGAIN;
+    PLAYAGAIN,
+    /**
+     * The game has not been started or it's already finished, nothing was moved
+     */
+    NOTPLAYING;
 
     KalahMove() {
     }
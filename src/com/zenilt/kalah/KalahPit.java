@@ -23,9 +23,6 @@
  */
 package com.zenilt.kalah;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-
 /**
  *
  * Represents a pit of the board.
@@ -34,7 +31,8 @@ import java.util.LinkedList;
  */
 public class KalahPit {
 
-    private final ArrayList<KalahStone> stones;
+    private final int[] squares;
+    private final int square;
 
     /**
      * Constructor uses game mode the add the initial stones
@@ -42,11 +40,18 @@ public class KalahPit {
      * @param mode the mode determines how many stones put initialy in the pit
      */
     public KalahPit(KalahMode mode) {
-	this.stones = new ArrayList<>();
-	for (int i = 0; i < mode.stones(); i++) {
-	    KalahStone stone = new KalahStone();
-	    this.stones.add(stone);
-	}
+	this(new int[]{mode.stones()}, 0);
+    }
+
+    /**
+     * Constructor for a view over a square of a board
+     *
+     * @param squares the squares of the board
+     * @param square the index of the square of this pit
+     */
+    KalahPit(int[] squares, int square) {
+	this.squares = squares;
+	this.square = square;
     }
 
     /**
@@ -55,7 +60,7 @@ public class KalahPit {
      * @return the number of stones
      */
     public Integer size() {
-	return stones.size();
+	return squares[square];
     }
 
     /**
@@ -64,27 +69,7 @@ public class KalahPit {
      * @return true if there is no stones, false otherwise
      */
     public Boolean isEmpty() {
-	return stones.isEmpty();
-    }
-
-    /**
-     * Takes and removes the stones from the pit. Creates a queue and returns it.
-     *
-     * @return all the stones as a LinkedList
-     */
-    protected LinkedList<KalahStone> takeStones() {
-	LinkedList<KalahStone> takedStones = new LinkedList<>(stones);
-	stones.clear();
-	return takedStones;
-    }
-
-    /**
-     * Adds a stone to the pit
-     *
-     * @param stone the stone to add
-     */
-    protected void addStone(KalahStone stone) {
-	stones.add(stone);
+	return squares[square] == 0;
     }
 
 }
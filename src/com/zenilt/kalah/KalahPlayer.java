@@ -44,11 +44,23 @@ public class KalahPlayer {
      * @param pitsNumber The number of pits the player has
      */
     public KalahPlayer(String name, KalahMode mode, Integer pitsNumber) {
+	this(name, initialSquares(mode, pitsNumber), 0, pitsNumber);
+    }
+
+    /**
+     * Constructor for a view over one side of a board, the house follows the pits
+     *
+     * @param name the name of the player
+     * @param squares the squares of the board
+     * @param firstSquare the index of the square of the first pit
+     * @param pitsNumber The number of pits the player has
+     */
+    KalahPlayer(String name, int[] squares, int firstSquare, int pitsNumber) {
 	this.name = name;
 	pits = new ArrayList<>();
-	house = new KalahHouse();
+	house = new KalahHouse(squares, firstSquare + pitsNumber);
 	for (int i = 0; i < pitsNumber; i++) {
-	    KalahPit pit = new KalahPit(mode);
+	    KalahPit pit = new KalahPit(squares, firstSquare + i);
 	    pits.add(pit);
 	}
     }
@@ -107,4 +119,12 @@ public class KalahPlayer {
 	return pits;
     }
 
+    private static int[] initialSquares(KalahMode mode, int pitsNumber) {
+	int[] squares = new int[pitsNumber + 1];
+	for (int i = 0; i < pitsNumber; i++) {
+	    squares[i] = mode.stones();
+	}
+	return squares;
+    }
+
 }
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah;
+
+/**
+ * Geometry and variant of the game: pits per side, stones per pit and whether a stone landing in an empty pit captures
+ * when the opposite pit is empty too.
+ *
+ * The rules precompute, for every pit and number of stones, the square reached by the last stone and how many times the
+ * stones go around the board, so KalahBoard never walks the stones one by one to find out where a move ends. Instances
+ * are immutable and meant to be shared by all the boards with the same rules.
+ *
+ * Kalah(6,n) with empty captures is the standard game of the modes, other rules are played with
+ * KalahGame(KalahRules rules).
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahRules {
+
+    /**
+     * Maximum number of pits per side
+     */
+    public static final int MAX_PITS = 8;
+    /**
+     * Maximum number of stones on the board
+     */
+    public static final int MAX_STONES = 255;
+
+    private static final KalahMode[] MODES = KalahMode.values();
+    private static final KalahRules[] STANDARD = standard();
+
+    private final int pits;
+    private final int seeds;
+    private final boolean emptyCapture;
+    private final KalahMode mode;
+    final int squares;
+    final long[] keys;
+    final long sideKey;
+    final int[] landing;
+    final int[] owners;
+    private final int reciprocal;
+
+    /**
+     * Constructor with the geometry and the capture rule
+     *
+     * @param pits the number of pits per side, between 1 and MAX_PITS
+     * @param seeds the number of stones initially in each pit, at least 1 and at most MAX_STONES in total
+     * @param emptyCapture true if the last stone landing in an empty pit of the mover is captured even when the opposite
+     * pit is empty, as in the standard game, false if nothing is captured then
+     */
+    public KalahRules(int pits, int seeds, boolean emptyCapture) {
+	if (pits < 1 || pits > MAX_PITS) {
+	    throw new IllegalArgumentException("pits must be between 1 and " + MAX_PITS);
+	}
+	if (seeds < 1 || 2 * pits * seeds > MAX_STONES) {
+	    throw new IllegalArgumentException("seeds must be at least 1 and at most " + MAX_STONES + " in total");
+	}
+	this.pits = pits;
+	this.seeds = seeds;
+	this.emptyCapture = emptyCapture;
+	this.mode = mode(pits, seeds, emptyCapture);
+	this.squares = 2 * pits + 2;
+	this.owners = new int[squares];
+	for (int square = 0; square < squares; square++) {
+	    //the houses are counted apart from the pits of both sides
+	    owners[square] = square == pits || square == squares - 1 ? 2 : square / (pits + 1);
+	}
+	this.keys = zobristKeys(squares * (MAX_STONES + 1) + 1);
+	this.sideKey = keys[squares * (MAX_STONES + 1)];
+	this.landing = new int[squares * (MAX_STONES + 1)];
+	for (int square = 0; square < squares; square++) {
+	    int opponentHouse = square <= pits ? squares - 1 : pits;
+	    //stones sown from a pit visit every square but the opponent's house, in a cycle of squares - 1
+	    int cycle = squares - 1;
+	    for (int stones = 0; stones <= MAX_STONES; stones++) {
+		int last = square;
+		for (int step = 0; step < (stones - 1) % cycle + 1 && stones > 0; step++) {
+		    last = last == squares - 1 ? 0 : last + 1;
+		    if (last == opponentHouse) {
+			last = last == squares - 1 ? 0 : last + 1;
+		    }
+		}
+		landing[square * (MAX_STONES + 1) + stones] = last;
+	    }
+	}
+	//the division by the cycle is a multiplication, exact for up to MAX_STONES stones
+	this.reciprocal = ((1 << 16) + squares - 2) / (squares - 1);
+    }
+
+    /**
+     * Gets the rules of a standard mode
+     *
+     * @param mode the game mode
+     * @return the shared instance with 6 pits, the stones of the mode and empty captures
+     */
+    public static KalahRules of(KalahMode mode) {
+	return STANDARD[mode.ordinal()];
+    }
+
+    /**
+     * Gets the number of pits per side
+     *
+     * @return the number of pits
+     */
+    public int getPits() {
+	return pits;
+    }
+
+    /**
+     * Gets the number of stones initially in each pit
+     *
+     * @return the number of stones
+     */
+    public int getSeeds() {
+	return seeds;
+    }
+
+    /**
+     * Gets the number of stones on the board
+     *
+     * @return the number of stones
+     */
+    public int getStones() {
+	return 2 * pits * seeds;
+    }
+
+    /**
+     * Check if a stone landing in an empty pit of the mover captures when the opposite pit is empty
+     *
+     * @return true if it does, as in the standard game
+     */
+    public boolean isEmptyCapture() {
+	return emptyCapture;
+    }
+
+    /**
+     * Gets the standard mode with these rules
+     *
+     * @return the mode, or null if the rules are not the ones of a mode
+     */
+    public KalahMode getMode() {
+	return mode;
+    }
+
+    /**
+     * Gets the square reached by the last of some stones sown from a square, skipping the house of the opponent
+     */
+    int landing(int square, int stones) {
+	return landing[square * (MAX_STONES + 1) + stones];
+    }
+
+    /**
+     * Gets how many times some stones sown from a pit go around the board, the same from any pit
+     */
+    int laps(int stones) {
+	return stones * reciprocal >>> 16;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+	if (!(other instanceof KalahRules)) {
+	    return false;
+	}
+	KalahRules rules = (KalahRules) other;
+	return pits == rules.pits && seeds == rules.seeds && emptyCapture == rules.emptyCapture;
+    }
+
+    @Override
+    public int hashCode() {
+	return (pits * 31 + seeds) * 2 + (emptyCapture ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+	return "Kalah(" + pits + "," + seeds + ")" + (emptyCapture ? "" : " without empty captures");
+    }
+
+    private static KalahMode mode(int pits, int seeds, boolean emptyCapture) {
+	for (KalahMode candidate : MODES) {
+	    if (pits == KalahBoard.PITS && seeds == candidate.stones() && emptyCapture) {
+		return candidate;
+	    }
+	}
+	return null;
+    }
+
+    private static KalahRules[] standard() {
+	KalahRules[] rules = new KalahRules[MODES.length];
+	for (KalahMode mode : MODES) {
+	    rules[mode.ordinal()] = new KalahRules(KalahBoard.PITS, mode.stones(), true);
+	}
+	return rules;
+    }
+
+    /**
+     * Generates the keys with a fixed seed, so hashes are the same on every run and for the rules with the same pits
+     */
+    private static long[] zobristKeys(int count) {
+	long[] keys = new long[count];
+	long seed = 0x4B616C6168L;
+	for (int i = 0; i < count; i++) {
+	    //splitmix64
+	    seed += 0x9E3779B97F4A7C15L;
+	    long z = seed;
+	    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	    keys[i] = z ^ (z >>> 31);
+	}
+	return keys;
+    }
+
+}
@@ -27,7 +27,9 @@ package com.zenilt.kalah;
  * Represents a simple stone token.
  *
  * @author Juan Francisco Rodríguez
+ * @deprecated the board keeps the stones as counts, see KalahBoard
  */
+@Deprecated
 public class KalahStone {
 
     /**
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahRules;
+
+/**
+ * Many positions with the same rules evaluated together, for generating training data and analysing games in bulk.
+ *
+ * The positions are kept as a structure of arrays: one array per square with one lane per board, and the squares are
+ * stored from the point of view of the side to move of each board, its pits in the order of KalahPlayer.getPits(), its
+ * house, then the pits and the house of the opponent. Every lane is then evaluated with the same code, and evaluate()
+ * runs plain loops over the lanes of each square, that the JIT compiler can unroll and turn into SIMD instructions.
+ *
+ * The features of each lane, all seen from its side to move, are:
+ * <ul>
+ * <li>material: its house minus the house of the opponent</li>
+ * <li>legal moves: the bit mask of KalahBoard.legalMoves(), and the mobility, the number of bits set</li>
+ * <li>reach: the stones its moves would sow in its house, added over all the legal moves</li>
+ * <li>threat: the most stones a single move would capture, the last stone included</li>
+ * </ul>
+ *
+ * An instance is not thread safe, use one per thread.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahBatch {
+
+    private static final int BLOCK = 256;
+    private static final int DIVISOR = 1 << 16;
+
+    private final KalahRules rules;
+    private final int pits;
+    private final int cycle;
+    private final int reciprocal;
+    private final int[][] squares;
+    private final int[] material;
+    private final int[] legalMoves;
+    private final int[] mobility;
+    private final int[] reach;
+    private final int[] threat;
+    private final int[] playing;
+    private int size;
+
+    /**
+     * Constructor with the rules of the positions and the maximum number of them
+     *
+     * @param rules the rules of all the positions of the batch
+     * @param capacity the maximum number of positions
+     */
+    public KalahBatch(KalahRules rules, int capacity) {
+	if (capacity < 1) {
+	    throw new IllegalArgumentException("capacity must be at least 1");
+	}
+	this.rules = rules;
+	this.pits = rules.getPits();
+	this.cycle = 2 * pits + 1;
+	this.reciprocal = (DIVISOR + cycle - 1) / cycle;
+	this.squares = new int[2 * pits + 2][capacity];
+	this.material = new int[capacity];
+	this.legalMoves = new int[capacity];
+	this.mobility = new int[capacity];
+	this.reach = new int[capacity];
+	this.threat = new int[capacity];
+	this.playing = new int[capacity];
+    }
+
+    /**
+     * Gets the rules of the positions
+     *
+     * @return the rules
+     */
+    public KalahRules getRules() {
+	return rules;
+    }
+
+    /**
+     * Gets the maximum number of positions
+     *
+     * @return the number of lanes
+     */
+    public int getCapacity() {
+	return material.length;
+    }
+
+    /**
+     * Gets the number of positions added
+     *
+     * @return the number of lanes in use
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Removes all the positions
+     */
+    public void clear() {
+	size = 0;
+    }
+
+    /**
+     * Adds a position in the next free lane
+     *
+     * @param board the position, it is not modified
+     * @return the lane of the position
+     * @throws IllegalStateException if the batch is full
+     */
+    public int add(KalahBoard board) {
+	if (size == getCapacity()) {
+	    throw new IllegalStateException("The batch is full");
+	}
+	set(size, board);
+	return size++;
+    }
+
+    /**
+     * Replaces the position of a lane
+     *
+     * @param lane the lane, lower than size()
+     * @param board the position, it is not modified
+     */
+    public void set(int lane, KalahBoard board) {
+	if (board.getPits() != pits) {
+	    throw new IllegalArgumentException("The board must have " + pits + " pits");
+	}
+	int side = board.getSideToMove();
+	for (int i = 0; i < pits; i++) {
+	    squares[i][lane] = board.getPit(side, i);
+	    squares[pits + 1 + i][lane] = board.getPit(1 - side, i);
+	}
+	squares[pits][lane] = board.getHouse(side);
+	squares[2 * pits + 1][lane] = board.getHouse(1 - side);
+    }
+
+    /**
+     * Computes the features of all the positions
+     */
+    public void evaluate() {
+	for (int from = 0; from < size; from += BLOCK) {
+	    evaluate(from, Math.min(from + BLOCK, size));
+	}
+    }
+
+    /**
+     * Computes the features of a block of lanes, small enough for all its squares to stay in the first level cache
+     */
+    private void evaluate(int from, int to) {
+	int[] house = squares[pits];
+	int[] opponentHouse = squares[2 * pits + 1];
+	for (int lane = from; lane < to; lane++) {
+	    material[lane] = house[lane] - opponentHouse[lane];
+	    legalMoves[lane] = 0;
+	    reach[lane] = 0;
+	    threat[lane] = 0;
+	    playing[lane] = 0;
+	}
+	//playing is -1 when the opponent has stones left, so the game goes on if the side to move has moves
+	for (int i = pits + 1; i < 2 * pits + 1; i++) {
+	    int[] pit = squares[i];
+	    for (int lane = from; lane < to; lane++) {
+		playing[lane] |= -pit[lane] >> 31;
+	    }
+	}
+	int minimum = rules.isEmptyCapture() ? 0 : 1;
+	for (int i = 0; i < pits; i++) {
+	    int[] pit = squares[i];
+	    int distance = pits - i;
+	    for (int lane = from; lane < to; lane++) {
+		int stones = pit[lane] & playing[lane];
+		legalMoves[lane] |= (-stones >>> 31) << i;
+		//the house gets a stone the first time it is reached and one more on every lap, the division by the lap is
+		//a multiplication, exact for up to 255 stones
+		int past = stones - distance;
+		reach[lane] += (~past >>> 31) * (1 + ((past & ~(past >> 31)) * reciprocal >>> 16));
+	    }
+	    //a move shorter than a lap captures if it ends in a pit with no stones, the opposite pit gets one on the way if
+	    //the move goes around, and a move of exactly a lap ends in the pit it emptied
+	    for (int target = 0; target < pits; target++) {
+		int[] landing = squares[target];
+		boolean emptied = target == i;
+		int[] opposite = squares[2 * pits - target];
+		int needed = target > i ? target - i : cycle - (i - target);
+		int passed = target > i ? 0 : 1;
+		for (int lane = from; lane < to; lane++) {
+		    int captured = opposite[lane] + passed;
+		    boolean steal = (pit[lane] & playing[lane]) == needed && (emptied || landing[lane] == 0)
+			    && captured >= minimum;
+		    threat[lane] = Math.max(threat[lane], steal ? captured + 1 : 0);
+		}
+	    }
+	}
+	for (int lane = from; lane < to; lane++) {
+	    mobility[lane] = Integer.bitCount(legalMoves[lane]);
+	}
+    }
+
+    /**
+     * Gets the house of the side to move minus the house of the opponent, computed by evaluate()
+     *
+     * @param lane the lane of the position
+     * @return the material difference
+     */
+    public int getMaterial(int lane) {
+	return material[lane];
+    }
+
+    /**
+     * Gets the pits the side to move can play, computed by evaluate()
+     *
+     * @param lane the lane of the position
+     * @return a bit mask where bit i is set if the pit with index i can be played, 0 if the game is over
+     */
+    public int getLegalMoves(int lane) {
+	return legalMoves[lane];
+    }
+
+    /**
+     * Gets the number of pits the side to move can play, computed by evaluate()
+     *
+     * @param lane the lane of the position
+     * @return the number of legal moves
+     */
+    public int getMobility(int lane) {
+	return mobility[lane];
+    }
+
+    /**
+     * Gets the stones the moves of the side to move would sow in its house, computed by evaluate()
+     *
+     * @param lane the lane of the position
+     * @return the stones of all the legal moves that reach the house, captures not included
+     */
+    public int getReach(int lane) {
+	return reach[lane];
+    }
+
+    /**
+     * Gets the most stones the side to move can capture with one move, computed by evaluate()
+     *
+     * @param lane the lane of the position
+     * @return the captured stones including the last one sown, 0 if no move captures
+     */
+    public int getThreat(int lane) {
+	return threat[lane];
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exact values of the positions with few stones left in the pits, read from a file built by KalahEndgameGenerator.
+ *
+ * The value of a position only depends on the stones in the pits and on the side to move: it is how many more stones the
+ * side to move will add to its house than the opponent until the end of the game, with best play from both sides. Each
+ * value takes one byte and its place in the file is the combinatorial rank of the stones of the pits, seen from the side
+ * to move.
+ *
+ * The file is memory mapped, so lookups don't copy anything and processes on the same host share the pages. A database
+ * holds up to MAX_STONES stones, so the file stays below the 2 GB a single mapping can hold.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahEndgameDatabase {
+
+    /**
+     * Value returned by probe when the position is not in the database
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Maximum number of stones in the pits a database can hold
+     */
+    public static final int MAX_STONES = 24;
+
+    static final int MAGIC = 0x4B414C44;
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    static final int PITS = 2 * KalahBoard.PITS;
+
+    private static final long[][] BINOMIAL = binomials(MAX_STONES + PITS + 1);
+
+    private final ByteBuffer values;
+    private final int maxStones;
+
+    private KalahEndgameDatabase(ByteBuffer values, int maxStones) {
+	this.values = values;
+	this.maxStones = maxStones;
+    }
+
+    /**
+     * Maps a database file
+     *
+     * @param file the file written by KalahEndgameGenerator
+     * @return the database
+     * @throws IOException if the file can't be read or it is not a database
+     */
+    public static KalahEndgameDatabase open(Path file) throws IOException {
+	try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+	    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+		    || buffer.getInt(8) != KalahBoard.PITS) {
+		throw new IOException("Not an endgame database: " + file);
+	    }
+	    int maxStones = buffer.getInt(12);
+	    if (maxStones < 0 || maxStones > MAX_STONES || buffer.limit() != HEADER + positions(maxStones)) {
+		throw new IOException("Corrupt endgame database: " + file);
+	    }
+	    return new KalahEndgameDatabase(buffer, maxStones);
+	}
+    }
+
+    /**
+     * Gets the maximum number of stones in the pits of the positions in the database
+     *
+     * @return the number of stones
+     */
+    public int getMaxStones() {
+	return maxStones;
+    }
+
+    /**
+     * Looks up the value of a position
+     *
+     * @param board the position
+     * @return the stones the side to move will gain over the opponent until the end of the game, or UNKNOWN if there are
+     * too many stones in the pits or the board is not played with the rules of the standard modes
+     */
+    public int probe(KalahBoard board) {
+	if (board.getRules().getMode() == null) {
+	    return UNKNOWN;
+	}
+	int side = board.getSideToMove();
+	int stones = 0;
+	for (int i = 0; i < KalahBoard.PITS; i++) {
+	    stones += board.getPit(KalahBoard.SIDE_A, i) + board.getPit(KalahBoard.SIDE_B, i);
+	}
+	if (stones > maxStones) {
+	    return UNKNOWN;
+	}
+	return values.get(HEADER + (int) index(board, side, stones));
+    }
+
+    /**
+     * Gets how many positions have up to a number of stones in the pits
+     */
+    static long positions(int maxStones) {
+	return BINOMIAL[maxStones + PITS][PITS];
+    }
+
+    /**
+     * Ranks the stones of the pits seen from a side: first the positions with fewer stones, then in lexicographic order
+     * of the pits, the ones of the side first
+     */
+    static long index(KalahBoard board, int side, int stones) {
+	long index = BINOMIAL[stones + PITS - 1][PITS];
+	int remaining = stones;
+	for (int i = 0; i < PITS - 1; i++) {
+	    int pit = i < KalahBoard.PITS ? board.getPit(side, i) : board.getPit(1 - side, i - KalahBoard.PITS);
+	    int after = PITS - 1 - i;
+	    index += BINOMIAL[remaining + after][after] - BINOMIAL[remaining - pit + after][after];
+	    remaining -= pit;
+	}
+	return index;
+    }
+
+    /**
+     * Sets up the pits of the position with a given index, seen from the side to move of the board
+     */
+    static void position(long index, int stones, KalahBoard board) {
+	int side = board.getSideToMove();
+	long rank = index - BINOMIAL[stones + PITS - 1][PITS];
+	int remaining = stones;
+	for (int i = 0; i < PITS; i++) {
+	    int after = PITS - 1 - i;
+	    int pit = remaining;
+	    if (after > 0) {
+		pit = 0;
+		while (BINOMIAL[remaining + after][after] - BINOMIAL[remaining - pit - 1 + after][after] <= rank) {
+		    pit++;
+		}
+		rank -= BINOMIAL[remaining + after][after] - BINOMIAL[remaining - pit + after][after];
+	    }
+	    if (i < KalahBoard.PITS) {
+		board.setPit(side, i, pit);
+	    } else {
+		board.setPit(1 - side, i - KalahBoard.PITS, pit);
+	    }
+	    remaining -= pit;
+	}
+    }
+
+    private static long[][] binomials(int size) {
+	long[][] binomial = new long[size][PITS + 1];
+	for (int n = 0; n < size; n++) {
+	    binomial[n][0] = 1;
+	    for (int k = 1; k <= Math.min(n, PITS); k++) {
+		binomial[n][k] = binomial[n - 1][k - 1] + (k <= n - 1 ? binomial[n - 1][k] : 0);
+	    }
+	}
+	return binomial;
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Builds the files read by KalahEndgameDatabase.
+ *
+ * Positions are solved from the fewest stones up. A move never adds stones to the pits, and while the number of stones
+ * in the pits stays the same every stone moves towards the house of its side, so every position played from one with the
+ * same stones is solved right before it and the values already computed are reused.
+ *
+ * Usage: KalahEndgameGenerator file maxStones
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahEndgameGenerator {
+
+    private static final byte UNSOLVED = Byte.MIN_VALUE;
+
+    private final int maxStones;
+    private final byte[] values;
+    private final KalahBoard board;
+
+    /**
+     * Constructor
+     *
+     * @param maxStones the maximum number of stones in the pits, up to KalahEndgameDatabase.MAX_STONES
+     */
+    public KalahEndgameGenerator(int maxStones) {
+	if (maxStones < 0 || maxStones > KalahEndgameDatabase.MAX_STONES) {
+	    throw new IllegalArgumentException("maxStones must be between 0 and " + KalahEndgameDatabase.MAX_STONES);
+	}
+	this.maxStones = maxStones;
+	this.values = new byte[(int) KalahEndgameDatabase.positions(maxStones)];
+	this.board = new KalahBoard(KalahMode.STONES_3);
+	Arrays.fill(values, UNSOLVED);
+    }
+
+    /**
+     * Solves all the positions
+     */
+    public void generate() {
+	board.setHouse(KalahBoard.SIDE_A, 0);
+	board.setHouse(KalahBoard.SIDE_B, 0);
+	board.setSideToMove(KalahBoard.SIDE_A);
+	for (int stones = 0; stones <= maxStones; stones++) {
+	    long first = KalahEndgameDatabase.positions(stones - 1);
+	    long last = KalahEndgameDatabase.positions(stones);
+	    for (long index = first; index < last; index++) {
+		if (values[(int) index] == UNSOLVED) {
+		    KalahEndgameDatabase.position(index, stones, board);
+		    solve();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Writes the solved positions
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+	try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING)) {
+	    ByteBuffer header = ByteBuffer.allocate(KalahEndgameDatabase.HEADER).order(ByteOrder.BIG_ENDIAN);
+	    header.putInt(KalahEndgameDatabase.MAGIC);
+	    header.putInt(KalahEndgameDatabase.VERSION);
+	    header.putInt(KalahBoard.PITS);
+	    header.putInt(maxStones);
+	    header.clear();
+	    writeFully(channel, header);
+	    writeFully(channel, ByteBuffer.wrap(values));
+	}
+    }
+
+    /**
+     * Negamax over the positions of the pits, the gain of a move is what it adds to the house of the mover
+     */
+    private int solve() {
+	int side = board.getSideToMove();
+	int stones = 0;
+	for (int i = 0; i < KalahBoard.PITS; i++) {
+	    stones += board.getPit(KalahBoard.SIDE_A, i) + board.getPit(KalahBoard.SIDE_B, i);
+	}
+	int index = (int) KalahEndgameDatabase.index(board, side, stones);
+	if (values[index] != UNSOLVED) {
+	    return values[index];
+	}
+	if (board.isFinished()) {
+	    values[index] = 0;
+	    return 0;
+	}
+	int legal = board.legalMoves();
+	int best = Integer.MIN_VALUE;
+	for (int i = 0; i < KalahBoard.PITS; i++) {
+	    if ((legal & (1 << i)) == 0) {
+		continue;
+	    }
+	    int house = board.getHouse(side);
+	    long move = board.play(i);
+	    int gain = board.getHouse(side) - house;
+	    int value = board.getSideToMove() == side ? gain + solve() : gain - solve();
+	    board.undo(move);
+	    best = Math.max(best, value);
+	}
+	values[index] = (byte) best;
+	return best;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+    }
+
+    /**
+     * @param args the file to write and the maximum number of stones in the pits
+     * @throws IOException if the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length != 2) {
+	    System.err.println("Usage: KalahEndgameGenerator file maxStones");
+	    System.exit(1);
+	}
+	long start = System.currentTimeMillis();
+	KalahEndgameGenerator generator = new KalahEndgameGenerator(Integer.parseInt(args[1]));
+	generator.generate();
+	generator.write(Paths.get(args[0]));
+	System.out.println(String.format("%d positions in %d ms", generator.values.length, System.currentTimeMillis() - start));
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahRules;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import static com.zenilt.kalah.engine.KalahTranspositionTable.EXACT;
+import static com.zenilt.kalah.engine.KalahTranspositionTable.LOWER;
+import static com.zenilt.kalah.engine.KalahTranspositionTable.MISS;
+import static com.zenilt.kalah.engine.KalahTranspositionTable.UPPER;
+
+/**
+ * Bot player that chooses moves with a negamax alpha-beta search.
+ *
+ * The search deepens iteratively until the maximum depth is reached or the time for the move runs out, the result of the
+ * deepest completed iteration is used. Moves that give an additional turn are tried first. The search runs on its own
+ * KalahBoard with play and undo, so it does not allocate while searching.
+ *
+ * Searched positions are kept in a KalahTranspositionTable, the table can be shared by engines used one after the other
+ * to cap the memory of the process. When a KalahEndgameDatabase is set, positions with few stones left are not searched,
+ * their exact value is read from it. When a KalahOpeningBook is set, positions found in it are not searched at all.
+ *
+ * An instance keeps the state of the search, use one instance per thread.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahEngine {
+
+    /**
+     * Default maximum depth, in plies
+     */
+    public static final int MAX_DEPTH = 64;
+    /**
+     * Size of the transposition table created by the engine when none is given, in bytes
+     */
+    public static final long TABLE_SIZE = 4L << 20;
+    /**
+     * Highest maximum depth accepted, in plies
+     */
+    public static final int DEPTH_LIMIT = 0xFE;
+
+    private static final int INFINITY = 1000;
+    private static final int CHECK_NODES = 1023;
+    private static final int SOLVED = DEPTH_LIMIT + 1;
+
+    private final long moveTime;
+    private final int maxDepth;
+    private final KalahBoard board;
+    private final int[][] moves;
+    private final KalahTranspositionTable table;
+    private KalahEndgameDatabase database;
+    private KalahOpeningBook book;
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopped;
+    private int rotation;
+    private boolean horizon;
+    private long nodes;
+    private int depth;
+    private int score;
+    private int rootMove;
+
+    /**
+     * Constructor with a time budget
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     */
+    public KalahEngine(long moveTime) {
+	this(moveTime, MAX_DEPTH);
+    }
+
+    /**
+     * Constructor with a time budget and a depth limit
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     * @param maxDepth the maximum depth to search, in plies
+     */
+    public KalahEngine(long moveTime, int maxDepth) {
+	this(moveTime, maxDepth, new KalahTranspositionTable(TABLE_SIZE));
+    }
+
+    /**
+     * Constructor with a time budget, a depth limit and the transposition table to use
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     * @param maxDepth the maximum depth to search, in plies, up to DEPTH_LIMIT
+     * @param table the table for the searched positions
+     */
+    public KalahEngine(long moveTime, int maxDepth, KalahTranspositionTable table) {
+	if (maxDepth < 1 || maxDepth > DEPTH_LIMIT) {
+	    throw new IllegalArgumentException("maxDepth must be between 1 and " + DEPTH_LIMIT);
+	}
+	this.moveTime = moveTime;
+	this.maxDepth = maxDepth;
+	this.board = new KalahBoard(KalahMode.STONES_3);
+	this.moves = new int[maxDepth + 1][KalahRules.MAX_PITS];
+	this.table = table;
+    }
+
+    /**
+     * Searches the best move for the player on turn
+     *
+     * @param game the game to search
+     * @return the index of the pit to play
+     * @throws KalahException if the game has not been started or it's already finished
+     */
+    public Integer bestMove(KalahGame game) throws KalahException {
+	if (game.getStatus() != KalahStatus.PLAYINGA && game.getStatus() != KalahStatus.PLAYINGB) {
+	    throw new KalahException();
+	}
+	return bestMove(game.getBoard());
+    }
+
+    /**
+     * Searches the best move for the side to move of a board
+     *
+     * @param position the board to search, it is not modified
+     * @return the index of the pit to play, or -1 if there are no legal moves
+     */
+    public int bestMove(KalahBoard position) {
+	resume();
+	table.newSearch();
+	return search(position, 1, 0);
+    }
+
+    /**
+     * Sets the database with the values of the positions with few stones left
+     *
+     * @param database the endgame database, or null to search those positions too
+     */
+    public void setEndgameDatabase(KalahEndgameDatabase database) {
+	this.database = database;
+    }
+
+    /**
+     * Sets the book with the best moves of the first plies, its moves are played without searching
+     *
+     * @param book the opening book, or null to search every position
+     */
+    public void setOpeningBook(KalahOpeningBook book) {
+	this.book = book;
+    }
+
+    /**
+     * Stops the search in progress as soon as the first iteration is complete, it can be called from any thread
+     */
+    public void stop() {
+	stopped = true;
+    }
+
+    /**
+     * Clears a previous stop request before starting a search
+     */
+    void resume() {
+	stopped = false;
+    }
+
+    /**
+     * Runs the iterative deepening without starting a new search in the table, used directly by the helpers of
+     * KalahParallelEngine and by KalahOpeningBookGenerator
+     *
+     * @param position the board to search, it is not modified
+     * @param firstDepth the depth of the first iteration
+     * @param rotation how many places to rotate the root moves after the first one, so helpers explore different lines
+     * @return the index of the pit to play, or -1 if there are no legal moves
+     */
+    int search(KalahBoard position, int firstDepth, int rotation) {
+	board.copyFrom(position);
+	deadline = System.nanoTime() + moveTime * 1000000L;
+	aborted = false;
+	nodes = 0;
+	depth = 0;
+	score = 0;
+	rootMove = -1;
+	this.rotation = rotation;
+	if (board.legalMoves() == 0) {
+	    return -1;
+	}
+	if (book != null) {
+	    int entry = book.probe(board);
+	    if (entry != KalahOpeningBook.MISS) {
+		depth = KalahOpeningBook.getDepth(entry);
+		score = KalahOpeningBook.getScore(entry);
+		rootMove = KalahOpeningBook.getMove(entry);
+		return rootMove;
+	    }
+	}
+	for (int d = Math.min(firstDepth, maxDepth); d <= maxDepth; d++) {
+	    horizon = false;
+	    int best = searchRoot(d);
+	    if (aborted) {
+		break;
+	    }
+	    depth = d;
+	    score = best;
+	    if (!horizon) {
+		//every line reached the end of the game, deeper iterations would not change anything
+		break;
+	    }
+	}
+	return rootMove;
+    }
+
+    /**
+     * Gets the depth reached by the last search
+     *
+     * @return the depth of the deepest completed iteration, in plies
+     */
+    public int getDepth() {
+	return depth;
+    }
+
+    /**
+     * Gets the score of the last search
+     *
+     * @return the expected house difference for the side that moved, from its point of view
+     */
+    public int getScore() {
+	return score;
+    }
+
+    /**
+     * Gets the number of positions visited by the last search
+     *
+     * @return the number of nodes
+     */
+    public long getNodes() {
+	return nodes;
+    }
+
+    private int searchRoot(int depth) {
+	int count = orderMoves(0, rootMove);
+	if (rotation > 0 && count > 2) {
+	    rotate(moves[0], 1, count, rotation);
+	}
+	int alpha = -INFINITY;
+	int bestMove = -1;
+	int side = board.getSideToMove();
+	for (int i = 0; i < count; i++) {
+	    int pitIndex = moves[0][i];
+	    long move = board.play(pitIndex);
+	    int value = child(side, depth - 1, 1, alpha, INFINITY);
+	    board.undo(move);
+	    if (aborted && this.depth > 0) {
+		return alpha;
+	    }
+	    if (value > alpha) {
+		alpha = value;
+		bestMove = pitIndex;
+	    }
+	}
+	rootMove = bestMove;
+	return alpha;
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+	nodes++;
+	if ((nodes & CHECK_NODES) == 0 && this.depth > 0 && (stopped || System.nanoTime() - deadline > 0)) {
+	    aborted = true;
+	}
+	if (aborted) {
+	    return 0;
+	}
+	if (board.isFinished()) {
+	    return material();
+	}
+	if (database != null) {
+	    int value = database.probe(board);
+	    if (value != KalahEndgameDatabase.UNKNOWN) {
+		return material() + value;
+	    }
+	}
+	if (depth == 0) {
+	    horizon = true;
+	    return material();
+	}
+	long hash = board.getHash();
+	long entry = table.probe(hash);
+	int tableMove = -1;
+	if (entry != MISS) {
+	    tableMove = KalahTranspositionTable.getMove(entry);
+	    int entryDepth = KalahTranspositionTable.getDepth(entry);
+	    if (entryDepth >= depth) {
+		int value = KalahTranspositionTable.getScore(entry);
+		int bound = KalahTranspositionTable.getBound(entry);
+		if (bound == EXACT || (bound == LOWER && value >= beta) || (bound == UPPER && value <= alpha)) {
+		    horizon |= entryDepth != SOLVED;
+		    return value;
+		}
+	    }
+	}
+	boolean parentHorizon = horizon;
+	horizon = false;
+	int count = orderMoves(ply, tableMove);
+	int side = board.getSideToMove();
+	int originalAlpha = alpha;
+	int best = -INFINITY;
+	int bestMove = -1;
+	for (int i = 0; i < count; i++) {
+	    long move = board.play(moves[ply][i]);
+	    int value = child(side, depth - 1, ply + 1, alpha, beta);
+	    board.undo(move);
+	    if (value > best) {
+		best = value;
+		bestMove = moves[ply][i];
+		if (value > alpha) {
+		    alpha = value;
+		    if (alpha >= beta) {
+			break;
+		    }
+		}
+	    }
+	}
+	if (!aborted) {
+	    int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+	    //results that never reached the depth limit hold for any depth
+	    table.store(hash, best, horizon ? depth : SOLVED, bound, bestMove);
+	}
+	horizon |= parentHorizon;
+	return best;
+    }
+
+    /**
+     * Searches the position reached after a move of side, the bounds and the score are seen from side and they are
+     * negated only when the turn was handed over
+     */
+    private int child(int side, int depth, int ply, int alpha, int beta) {
+	if (board.getSideToMove() == side) {
+	    return negamax(depth, ply, alpha, beta);
+	}
+	return -negamax(depth, ply, -beta, -alpha);
+    }
+
+    private int material() {
+	int side = board.getSideToMove();
+	return board.getHouse(side) - board.getHouse(1 - side);
+    }
+
+    private static void rotate(int[] list, int from, int to, int places) {
+	for (int n = places % (to - from); n > 0; n--) {
+	    int first = list[from];
+	    System.arraycopy(list, from + 1, list, from, to - from - 1);
+	    list[to - 1] = first;
+	}
+    }
+
+    /**
+     * Fills the moves of a ply, the given move first, then the ones ending up in the house
+     *
+     * @return the number of moves
+     */
+    private int orderMoves(int ply, int first) {
+	int[] list = moves[ply];
+	int legal = board.legalMoves();
+	int count = 0;
+	if (first >= 0 && (legal & (1 << first)) != 0) {
+	    list[count++] = first;
+	    legal &= ~(1 << first);
+	}
+	for (int i = board.getPits() - 1; i >= 0; i--) {
+	    if ((legal & (1 << i)) != 0 && board.isPlayAgain(i)) {
+		list[count++] = i;
+		legal &= ~(1 << i);
+	    }
+	}
+	for (int i = board.getPits() - 1; i >= 0; i--) {
+	    if ((legal & (1 << i)) != 0) {
+		list[count++] = i;
+	    }
+	}
+	return count;
+    }
+
+}
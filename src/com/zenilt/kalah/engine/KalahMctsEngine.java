@@ -0,0 +1,322 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahRules;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import java.util.SplittableRandom;
+
+/**
+ * Bot player that chooses moves with a Monte Carlo tree search (UCT).
+ *
+ * Each playout walks down the tree choosing the child with the best upper confidence bound, adds the children of the
+ * node reached, and plays the rest of the game with a KalahPlayoutPolicy. The pit played most often from the root is
+ * chosen. The search stops when the time for the move runs out or the playout budget is spent.
+ *
+ * The tree lives in a preallocated KalahNodePool, and each node is rewarded from the point of view of the side that played
+ * its move, so additional turns are handled like any other move. When the next position searched was already in the tree,
+ * for example after the opponent replies, its subtree is kept as the new root and copied to a second pool, which leaves
+ * all the free nodes at the end.
+ *
+ * An instance keeps the tree between moves, use one instance per thread.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahMctsEngine {
+
+    /**
+     * Number of nodes of the tree when none is given
+     */
+    public static final int MAX_NODES = 1 << 18;
+
+    private static final double EXPLORATION = Math.sqrt(2);
+    private static final int REUSE_DEPTH = 8;
+    private static final int CHECK_PLAYOUTS = 63;
+
+    private final long moveTime;
+    private final long maxPlayouts;
+    private final KalahPlayoutPolicy policy;
+    private final SplittableRandom random;
+    private final KalahBoard board;
+    private KalahNodePool tree;
+    private KalahNodePool spare;
+    private int[] path;
+    private KalahOpeningBook book;
+    private volatile boolean stopped;
+    private long playouts;
+    private long elapsed;
+    private int reused;
+
+    /**
+     * Constructor with a time budget
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     */
+    public KalahMctsEngine(long moveTime) {
+	this(moveTime, Long.MAX_VALUE, MAX_NODES, KalahPlayoutPolicy.GREEDY, System.nanoTime());
+    }
+
+    /**
+     * Constructor with all the limits
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     * @param maxPlayouts the maximum number of playouts per move
+     * @param maxNodes the number of nodes of the tree, the memory used is about 60 bytes per node
+     * @param policy how to choose the moves of the playouts
+     * @param seed the seed for the random choices
+     */
+    public KalahMctsEngine(long moveTime, long maxPlayouts, int maxNodes, KalahPlayoutPolicy policy, long seed) {
+	if (maxPlayouts < 1) {
+	    throw new IllegalArgumentException("maxPlayouts must be at least 1");
+	}
+	if (maxNodes <= KalahRules.MAX_PITS) {
+	    throw new IllegalArgumentException("maxNodes must be more than " + KalahRules.MAX_PITS);
+	}
+	this.moveTime = moveTime;
+	this.maxPlayouts = maxPlayouts;
+	this.policy = policy;
+	this.random = new SplittableRandom(seed);
+	this.board = new KalahBoard(KalahMode.STONES_3);
+	this.tree = new KalahNodePool(maxNodes);
+	this.spare = new KalahNodePool(maxNodes);
+	this.path = new int[64];
+    }
+
+    /**
+     * Searches the best move for the player on turn
+     *
+     * @param game the game to search
+     * @return the index of the pit to play
+     * @throws KalahException if the game has not been started or it's already finished
+     */
+    public Integer bestMove(KalahGame game) throws KalahException {
+	if (game.getStatus() != KalahStatus.PLAYINGA && game.getStatus() != KalahStatus.PLAYINGB) {
+	    throw new KalahException();
+	}
+	return bestMove(game.getBoard());
+    }
+
+    /**
+     * Searches the best move for the side to move of a board
+     *
+     * @param position the board to search, it is not modified
+     * @return the index of the pit to play, or -1 if there are no legal moves
+     */
+    public int bestMove(KalahBoard position) {
+	stopped = false;
+	playouts = 0;
+	elapsed = 0;
+	if (position.legalMoves() == 0) {
+	    return -1;
+	}
+	if (book != null) {
+	    int entry = book.probe(position);
+	    if (entry != KalahOpeningBook.MISS) {
+		reused = 0;
+		tree.reset(position);
+		return KalahOpeningBook.getMove(entry);
+	    }
+	}
+	reuse(position);
+	long start = System.nanoTime();
+	long deadline = start + moveTime * 1000000L;
+	do {
+	    playout(position);
+	    playouts++;
+	} while (playouts < maxPlayouts && !stopped
+		&& ((playouts & CHECK_PLAYOUTS) != 0 || System.nanoTime() - deadline < 0));
+	elapsed = System.nanoTime() - start;
+	int best = bestChild();
+	return best < 0 ? -1 : tree.move[best];
+    }
+
+    /**
+     * Sets the book with the best moves of the first plies, its moves are played without searching
+     *
+     * @param book the opening book, or null to search every position
+     */
+    public void setOpeningBook(KalahOpeningBook book) {
+	this.book = book;
+    }
+
+    /**
+     * Stops the search in progress after the current playout, it can be called from any thread
+     */
+    public void stop() {
+	stopped = true;
+    }
+
+    /**
+     * Forgets the tree, the next search starts from scratch
+     */
+    public void clear() {
+	tree.clear();
+    }
+
+    /**
+     * Gets the number of playouts of the last search
+     *
+     * @return the number of playouts
+     */
+    public long getPlayouts() {
+	return playouts;
+    }
+
+    /**
+     * Gets the speed of the last search
+     *
+     * @return the number of playouts per second
+     */
+    public double getPlayoutsPerSecond() {
+	return elapsed == 0 ? 0 : playouts * 1e9 / elapsed;
+    }
+
+    /**
+     * Gets the size of the tree after the last search
+     *
+     * @return the number of nodes
+     */
+    public int getTreeSize() {
+	return tree.size();
+    }
+
+    /**
+     * Gets how much of the tree was kept from the search before the last one
+     *
+     * @return the number of nodes kept, 0 if the tree was rebuilt
+     */
+    public int getReusedNodes() {
+	return reused;
+    }
+
+    /**
+     * Gets the expected result of the move chosen by the last search
+     *
+     * @return the average reward of the move for the side to move, between 0 (loss) and 1 (win)
+     */
+    public double getWinRate() {
+	int best = bestChild();
+	return best < 0 || tree.visits[best] == 0 ? 0 : tree.reward[best] / tree.visits[best];
+    }
+
+    /**
+     * Makes the node of the position the root, keeping its subtree if it is already in the tree
+     */
+    private void reuse(KalahBoard position) {
+	reused = 0;
+	int node = tree.size() == 0 ? -1 : tree.find(0, position.getHash(), REUSE_DEPTH);
+	if (node > 0) {
+	    spare.copyFrom(tree, node);
+	    KalahNodePool swap = tree;
+	    tree = spare;
+	    spare = swap;
+	}
+	if (node < 0 || (tree.childCount[0] == 0 && !tree.hasRoom(KalahRules.MAX_PITS))) {
+	    tree.reset(position);
+	} else {
+	    reused = tree.size();
+	}
+    }
+
+    private void playout(KalahBoard position) {
+	board.copyFrom(position);
+	int node = 0;
+	int length = 0;
+	path[length++] = node;
+	while (tree.childCount[node] > 0) {
+	    node = select(node);
+	    board.play(tree.move[node]);
+	    length = push(length, node);
+	}
+	if ((node == 0 || tree.visits[node] > 0) && tree.expand(node, board)) {
+	    node = tree.firstChild[node] + random.nextInt(tree.childCount[node]);
+	    board.play(tree.move[node]);
+	    length = push(length, node);
+	}
+	while (board.legalMoves() != 0) {
+	    board.play(policy.choose(board, random));
+	}
+	int margin = board.getHouse(KalahBoard.SIDE_A) - board.getHouse(KalahBoard.SIDE_B);
+	for (int i = 0; i < length; i++) {
+	    int n = path[i];
+	    tree.visits[n]++;
+	    if (margin == 0) {
+		tree.reward[n] += 0.5;
+	    } else if ((margin > 0) == (tree.mover[n] == KalahBoard.SIDE_A)) {
+		tree.reward[n] += 1;
+	    }
+	}
+    }
+
+    /**
+     * Chooses the child with the best upper confidence bound, children never visited first
+     */
+    private int select(int node) {
+	double log = Math.log(tree.visits[node]);
+	int first = tree.firstChild[node];
+	int best = first;
+	double bestValue = Double.NEGATIVE_INFINITY;
+	for (int child = first; child < first + tree.childCount[node]; child++) {
+	    int visits = tree.visits[child];
+	    if (visits == 0) {
+		return child;
+	    }
+	    double value = tree.reward[child] / visits + EXPLORATION * Math.sqrt(log / visits);
+	    if (value > bestValue) {
+		bestValue = value;
+		best = child;
+	    }
+	}
+	return best;
+    }
+
+    /**
+     * Gets the most visited child of the root
+     */
+    private int bestChild() {
+	int best = -1;
+	int first = tree.firstChild[0];
+	for (int child = first; child < first + tree.childCount[0]; child++) {
+	    if (best < 0 || tree.visits[child] > tree.visits[best]) {
+		best = child;
+	    }
+	}
+	return best;
+    }
+
+    private int push(int length, int node) {
+	if (length == path.length) {
+	    int[] grown = new int[length * 2];
+	    System.arraycopy(path, 0, grown, 0, length);
+	    path = grown;
+	}
+	path[length] = node;
+	return length + 1;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+
+/**
+ * Preallocated nodes of the search tree of KalahMctsEngine, one array per field.
+ *
+ * Node 0 is the root and the children of a node are stored next to each other, so a node only keeps the index of its
+ * first child and how many it has. The reward of a node is seen from the side that played the move leading to it, which
+ * is not always the opponent of the side that played the move before, because of the additional turns.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+class KalahNodePool {
+
+    final long[] hash;
+    final double[] reward;
+    final int[] visits;
+    final int[] firstChild;
+    final byte[] childCount;
+    final byte[] move;
+    final byte[] mover;
+    private final int[] origin;
+    private int size;
+
+    KalahNodePool(int capacity) {
+	this.hash = new long[capacity];
+	this.reward = new double[capacity];
+	this.visits = new int[capacity];
+	this.firstChild = new int[capacity];
+	this.childCount = new byte[capacity];
+	this.move = new byte[capacity];
+	this.mover = new byte[capacity];
+	this.origin = new int[capacity];
+    }
+
+    /**
+     * Gets the number of nodes in use
+     */
+    int size() {
+	return size;
+    }
+
+    /**
+     * Check if there are free nodes left
+     */
+    boolean hasRoom(int nodes) {
+	return size + nodes <= hash.length;
+    }
+
+    /**
+     * Removes all the nodes
+     */
+    void clear() {
+	size = 0;
+    }
+
+    /**
+     * Removes all the nodes and adds a root for the position of a board
+     */
+    void reset(KalahBoard board) {
+	size = 0;
+	add(board.getHash(), -1, 1 - board.getSideToMove());
+    }
+
+    /**
+     * Adds the children of a node, one per legal move of the board, which must be at the position of the node
+     *
+     * @return false if there is no room for them
+     */
+    boolean expand(int node, KalahBoard board) {
+	int legal = board.legalMoves();
+	int count = Integer.bitCount(legal);
+	if (count == 0 || !hasRoom(count)) {
+	    return false;
+	}
+	int side = board.getSideToMove();
+	firstChild[node] = size;
+	childCount[node] = (byte) count;
+	for (int i = 0; i < board.getPits(); i++) {
+	    if ((legal & (1 << i)) != 0) {
+		long record = board.play(i);
+		add(board.getHash(), i, side);
+		board.undo(record);
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Replaces the nodes with a copy of the subtree of a node of another pool, the node becomes the root
+     */
+    void copyFrom(KalahNodePool source, int root) {
+	size = 0;
+	copy(source, root);
+	for (int i = 0; i < size; i++) {
+	    int from = origin[i];
+	    int count = source.childCount[from];
+	    if (count == 0) {
+		continue;
+	    }
+	    firstChild[i] = size;
+	    childCount[i] = (byte) count;
+	    for (int k = 0; k < count; k++) {
+		copy(source, source.firstChild[from] + k);
+	    }
+	}
+    }
+
+    /**
+     * Looks for the node of a position among the descendants of a node
+     *
+     * @return the index of the node, or -1 if it is not found within depth plies
+     */
+    int find(int node, long position, int depth) {
+	if (hash[node] == position) {
+	    return node;
+	}
+	if (depth == 0) {
+	    return -1;
+	}
+	for (int k = 0; k < childCount[node]; k++) {
+	    int found = find(firstChild[node] + k, position, depth - 1);
+	    if (found >= 0) {
+		return found;
+	    }
+	}
+	return -1;
+    }
+
+    private void add(long position, int pitIndex, int side) {
+	hash[size] = position;
+	reward[size] = 0;
+	visits[size] = 0;
+	firstChild[size] = -1;
+	childCount[size] = 0;
+	move[size] = (byte) pitIndex;
+	mover[size] = (byte) side;
+	size++;
+    }
+
+    private void copy(KalahNodePool source, int node) {
+	add(source.hash[node], source.move[node], source.mover[node]);
+	reward[size - 1] = source.reward[node];
+	visits[size - 1] = source.visits[node];
+	origin[size - 1] = node;
+    }
+
+}
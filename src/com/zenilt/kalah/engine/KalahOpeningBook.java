@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahRules;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Best moves of the first plies of the game, read from a file built by KalahOpeningBookGenerator.
+ *
+ * The file holds the entries sorted by the Zobrist hash of their position. When it is opened they are loaded into an
+ * open addressing table of primitive arrays, so a lookup is a couple of array reads and does not allocate. A book holds
+ * the positions of one KalahRules, boards with other rules are never found in it.
+ *
+ * The book is read only once opened, it can be shared by engines running on different threads.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahOpeningBook {
+
+    /**
+     * Value returned by probe when the position is not in the book
+     */
+    public static final int MISS = -1;
+
+    static final int MAGIC = 0x4B414C42;
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    static final int ENTRY = 12;
+
+    private static final int SCORE_SHIFT = 16;
+    private static final int DEPTH_SHIFT = 8;
+
+    private final KalahRules rules;
+    private final long[] hashes;
+    private final int[] entries;
+    private final int mask;
+    private int size;
+
+    /**
+     * Constructor with room for a number of positions
+     *
+     * @param rules the rules of the positions
+     * @param capacity the number of positions to hold
+     */
+    KalahOpeningBook(KalahRules rules, int capacity) {
+	int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+	this.rules = rules;
+	this.hashes = new long[slots];
+	this.entries = new int[slots];
+	this.mask = slots - 1;
+    }
+
+    /**
+     * Reads a book file
+     *
+     * @param file the file written by KalahOpeningBookGenerator
+     * @return the book
+     * @throws IOException if the file can't be read or it is not a book
+     */
+    public static KalahOpeningBook open(Path file) throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.BIG_ENDIAN);
+	if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+	    throw new IOException("Not an opening book: " + file);
+	}
+	int count = buffer.getInt(20);
+	if (count < 0 || buffer.limit() != HEADER + (long) count * ENTRY) {
+	    throw new IOException("Corrupt opening book: " + file);
+	}
+	KalahRules rules;
+	try {
+	    rules = new KalahRules(buffer.getInt(8), buffer.getInt(12), buffer.getInt(16) != 0);
+	} catch (IllegalArgumentException ex) {
+	    throw new IOException("Corrupt opening book: " + file, ex);
+	}
+	KalahOpeningBook book = new KalahOpeningBook(rules, count);
+	buffer.position(HEADER);
+	for (int i = 0; i < count; i++) {
+	    book.put(buffer.getLong(), buffer.getInt());
+	}
+	return book;
+    }
+
+    /**
+     * Gets the rules of the positions in the book
+     *
+     * @return the rules
+     */
+    public KalahRules getRules() {
+	return rules;
+    }
+
+    /**
+     * Gets the number of positions in the book
+     *
+     * @return the number of positions
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Looks up a position
+     *
+     * @param board the position
+     * @return the entry to read with getMove, getScore and getDepth, or MISS if the position or its rules are not in the
+     * book
+     */
+    public int probe(KalahBoard board) {
+	if (!rules.equals(board.getRules())) {
+	    return MISS;
+	}
+	return find(board.getHash());
+    }
+
+    /**
+     * Gets the best move of an entry
+     *
+     * @param entry the value returned by probe
+     * @return the index of the pit
+     */
+    public static int getMove(int entry) {
+	return entry & 0xFF;
+    }
+
+    /**
+     * Gets the score of an entry
+     *
+     * @param entry the value returned by probe
+     * @return the expected house difference for the side to move, from its point of view
+     */
+    public static int getScore(int entry) {
+	return entry >> SCORE_SHIFT;
+    }
+
+    /**
+     * Gets the depth searched for an entry
+     *
+     * @param entry the value returned by probe
+     * @return the depth, in plies
+     */
+    public static int getDepth(int entry) {
+	return (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Packs the result of a search in an entry
+     */
+    static int entry(int move, int score, int depth) {
+	return score << SCORE_SHIFT | Math.min(depth, 0xFF) << DEPTH_SHIFT | move;
+    }
+
+    /**
+     * Adds a position, hash 0 marks the empty slots and can't be stored
+     */
+    void put(long hash, int entry) {
+	int slot = slot(hash);
+	while (hashes[slot] != 0L && hashes[slot] != hash) {
+	    slot = (slot + 1) & mask;
+	}
+	if (hashes[slot] == 0L) {
+	    size++;
+	}
+	hashes[slot] = hash;
+	entries[slot] = entry;
+    }
+
+    /**
+     * Writes the positions sorted by hash
+     */
+    void write(Path file) throws IOException {
+	long[] sorted = new long[size];
+	int count = 0;
+	for (long hash : hashes) {
+	    if (hash != 0L) {
+		sorted[count++] = hash;
+	    }
+	}
+	Arrays.sort(sorted);
+	ByteBuffer buffer = ByteBuffer.allocate(HEADER + size * ENTRY).order(ByteOrder.BIG_ENDIAN);
+	buffer.putInt(MAGIC);
+	buffer.putInt(VERSION);
+	buffer.putInt(rules.getPits());
+	buffer.putInt(rules.getSeeds());
+	buffer.putInt(rules.isEmptyCapture() ? 1 : 0);
+	buffer.putInt(size);
+	buffer.position(HEADER);
+	for (long hash : sorted) {
+	    buffer.putLong(hash);
+	    buffer.putInt(find(hash));
+	}
+	Files.write(file, buffer.array());
+    }
+
+    private int find(long hash) {
+	for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+	    long stored = hashes[slot];
+	    if (stored == 0L) {
+		return MISS;
+	    }
+	    if (stored == hash) {
+		return entries[slot];
+	    }
+	}
+    }
+
+    private int slot(long hash) {
+	return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahRules;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the files read by KalahOpeningBook.
+ *
+ * Every position reached from the initial board within a number of moves is searched to a fixed depth with KalahEngine,
+ * and its best move is stored. Positions reached by different move orders are searched once. The searches run on
+ * several threads sharing one transposition table as a single search, so each position benefits from the lines already
+ * searched for the ones before.
+ *
+ * Usage: KalahOpeningBookGenerator file STONES_3|STONES_4|STONES_6 plies depth [threads]
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahOpeningBookGenerator {
+
+    /**
+     * Size of the transposition table shared by the searches, in bytes
+     */
+    public static final long TABLE_SIZE = 256L << 20;
+
+    private static final long MOVE_TIME = 24L * 60 * 60 * 1000;
+
+    private final int depth;
+    private final int threads;
+    private final KalahOpeningBook book;
+    private final List<KalahBoard> positions;
+
+    /**
+     * Constructor
+     *
+     * @param rules the rules of the positions
+     * @param plies the number of moves from the initial board of the positions to store
+     * @param depth the depth to search every position, in plies
+     * @param threads the number of threads to search with
+     */
+    public KalahOpeningBookGenerator(KalahRules rules, int plies, int depth, int threads) {
+	if (plies < 0) {
+	    throw new IllegalArgumentException("plies must be at least 0");
+	}
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	this.depth = depth;
+	this.threads = threads;
+	this.positions = new ArrayList<>();
+	collect(new KalahBoard(rules), plies);
+	this.book = new KalahOpeningBook(rules, positions.size());
+    }
+
+    /**
+     * Gets the number of positions to search
+     *
+     * @return the number of different positions within the plies
+     */
+    public int getPositions() {
+	return positions.size();
+    }
+
+    /**
+     * Searches all the positions
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the searches
+     */
+    public void generate() throws InterruptedException {
+	KalahTranspositionTable table = new KalahTranspositionTable(TABLE_SIZE);
+	int[] entries = new int[positions.size()];
+	AtomicInteger next = new AtomicInteger();
+	//one generation for the whole book, a new one per position would make every deep entry stale for the others
+	table.newSearch();
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	try {
+	    List<Future<?>> workers = new ArrayList<>();
+	    for (int i = 0; i < threads; i++) {
+		workers.add(executor.submit(() -> {
+		    KalahEngine engine = new KalahEngine(MOVE_TIME, depth, table);
+		    for (int index = next.getAndIncrement(); index < entries.length; index = next.getAndIncrement()) {
+			int move = engine.search(positions.get(index), 1, 0);
+			entries[index] = KalahOpeningBook.entry(move, engine.getScore(), engine.getDepth());
+		    }
+		}));
+	    }
+	    for (Future<?> worker : workers) {
+		worker.get();
+	    }
+	} catch (ExecutionException ex) {
+	    throw new IllegalStateException(ex.getCause());
+	} finally {
+	    executor.shutdownNow();
+	}
+	for (int i = 0; i < entries.length; i++) {
+	    book.put(positions.get(i).getHash(), entries[i]);
+	}
+    }
+
+    /**
+     * Writes the searched positions
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+	book.write(file);
+    }
+
+    /**
+     * Adds the positions with moves left within some plies of a board, level by level, so every position is first
+     * reached by its shortest line and expanded with the most plies left
+     */
+    private void collect(KalahBoard initial, int plies) {
+	Set<Long> seen = new HashSet<>();
+	add(initial, seen);
+	int first = 0;
+	for (int ply = 0; ply < plies; ply++) {
+	    int last = positions.size();
+	    for (int index = first; index < last; index++) {
+		KalahBoard board = new KalahBoard(positions.get(index));
+		int legal = board.legalMoves();
+		for (int i = 0; i < board.getPits(); i++) {
+		    if ((legal & (1 << i)) != 0) {
+			long move = board.play(i);
+			add(board, seen);
+			board.undo(move);
+		    }
+		}
+	    }
+	    first = last;
+	}
+    }
+
+    private void add(KalahBoard board, Set<Long> seen) {
+	if (board.legalMoves() != 0 && board.getHash() != 0L && seen.add(board.getHash())) {
+	    positions.add(new KalahBoard(board));
+	}
+    }
+
+    /**
+     * @param args the file to write, the mode, the plies, the search depth and optionally the number of threads
+     * @throws IOException if the file can't be written
+     * @throws InterruptedException if the thread is interrupted while searching
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length != 4 && args.length != 5) {
+	    System.err.println("Usage: KalahOpeningBookGenerator file STONES_3|STONES_4|STONES_6 plies depth [threads]");
+	    System.exit(1);
+	}
+	long start = System.currentTimeMillis();
+	KalahOpeningBookGenerator generator = new KalahOpeningBookGenerator(KalahRules.of(KalahMode.valueOf(args[1])),
+		Integer.parseInt(args[2]), Integer.parseInt(args[3]), args.length == 5 ? Integer.parseInt(args[4]) : 1);
+	generator.generate();
+	generator.write(Paths.get(args[0]));
+	System.out.println(String.format("%d positions in %d ms", generator.getPositions(), System.currentTimeMillis() - start));
+    }
+
+}
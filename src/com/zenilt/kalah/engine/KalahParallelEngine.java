@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bot player that searches with several threads sharing one transposition table (lazy SMP).
+ *
+ * The calling thread runs a regular KalahEngine search and its result is the one returned. Every other thread runs its own
+ * KalahEngine on the same position, starting at a different depth and with the root moves in a different order, and they
+ * help by filling the shared table. The helpers stop when the calling thread finishes.
+ *
+ * With one thread no helpers are started and the search is the same as the one of KalahEngine, so it is deterministic
+ * when the time budget is large enough to reach the depth limit.
+ *
+ * Call shutdown() to release the threads when the engine is no longer needed.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahParallelEngine {
+
+    private final KalahEngine[] engines;
+    private final KalahTranspositionTable table;
+    private final ExecutorService executor;
+    private final Future<?>[] helpers;
+
+    /**
+     * Constructor with a time budget, a depth limit, the number of threads and the size of the shared table
+     *
+     * @param moveTime the maximum time to spend per move, in milliseconds
+     * @param maxDepth the maximum depth to search, in plies, less than 255
+     * @param threads the number of threads to search with, including the calling one
+     * @param tableSize the memory for the shared transposition table, in bytes
+     */
+    public KalahParallelEngine(long moveTime, int maxDepth, int threads, long tableSize) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	this.table = new KalahTranspositionTable(tableSize);
+	this.engines = new KalahEngine[threads];
+	for (int i = 0; i < threads; i++) {
+	    engines[i] = new KalahEngine(moveTime, maxDepth, table);
+	}
+	this.helpers = new Future<?>[threads - 1];
+	this.executor = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-search");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+    }
+
+    /**
+     * Searches the best move for the player on turn
+     *
+     * @param game the game to search
+     * @return the index of the pit to play
+     * @throws KalahException if the game has not been started or it's already finished
+     */
+    public Integer bestMove(KalahGame game) throws KalahException {
+	if (game.getStatus() != KalahStatus.PLAYINGA && game.getStatus() != KalahStatus.PLAYINGB) {
+	    throw new KalahException();
+	}
+	return bestMove(game.getBoard());
+    }
+
+    /**
+     * Searches the best move for the side to move of a board
+     *
+     * @param position the board to search, it is not modified
+     * @return the index of the pit to play, or -1 if there are no legal moves
+     */
+    public synchronized int bestMove(KalahBoard position) {
+	table.newSearch();
+	for (KalahEngine engine : engines) {
+	    engine.resume();
+	}
+	for (int i = 0; i < helpers.length; i++) {
+	    KalahEngine helper = engines[i + 1];
+	    int firstDepth = 1 + (i + 1) % 2;
+	    int rotation = i + 1;
+	    helpers[i] = executor.submit(() -> helper.search(position, firstDepth, rotation));
+	}
+	int move = engines[0].search(position, 1, 0);
+	for (int i = 1; i < engines.length; i++) {
+	    engines[i].stop();
+	}
+	for (int i = 0; i < helpers.length; i++) {
+	    try {
+		helpers[i].get();
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+	    } catch (ExecutionException ex) {
+		throw new IllegalStateException(ex.getCause());
+	    }
+	}
+	return move;
+    }
+
+    /**
+     * Sets the database with the values of the positions with few stones left, for all the threads
+     *
+     * @param database the endgame database, or null to search those positions too
+     */
+    public void setEndgameDatabase(KalahEndgameDatabase database) {
+	for (KalahEngine engine : engines) {
+	    engine.setEndgameDatabase(database);
+	}
+    }
+
+    /**
+     * Sets the book with the best moves of the first plies, for all the threads
+     *
+     * @param book the opening book, or null to search every position
+     */
+    public void setOpeningBook(KalahOpeningBook book) {
+	for (KalahEngine engine : engines) {
+	    engine.setOpeningBook(book);
+	}
+    }
+
+    /**
+     * Stops the search in progress as soon as the first iteration is complete, it can be called from any thread
+     */
+    public void stop() {
+	for (KalahEngine engine : engines) {
+	    engine.stop();
+	}
+    }
+
+    /**
+     * Releases the threads of the helpers
+     */
+    public void shutdown() {
+	if (executor != null) {
+	    executor.shutdownNow();
+	}
+    }
+
+    /**
+     * Gets the number of threads used to search
+     *
+     * @return the number of threads, including the calling one
+     */
+    public int getThreads() {
+	return engines.length;
+    }
+
+    /**
+     * Gets the size of the shared transposition table
+     *
+     * @return the size of the table in bytes
+     */
+    public long getTableSize() {
+	return table.size();
+    }
+
+    /**
+     * Gets the depth reached by the last search
+     *
+     * @return the depth of the deepest iteration completed by the calling thread, in plies
+     */
+    public int getDepth() {
+	return engines[0].getDepth();
+    }
+
+    /**
+     * Gets the score of the last search
+     *
+     * @return the expected house difference for the side that moved, from its point of view
+     */
+    public int getScore() {
+	return engines[0].getScore();
+    }
+
+    /**
+     * Gets the number of positions visited by the last search
+     *
+     * @return the number of nodes of all the threads
+     */
+    public long getNodes() {
+	long nodes = 0;
+	for (KalahEngine engine : engines) {
+	    nodes += engine.getNodes();
+	}
+	return nodes;
+    }
+
+}
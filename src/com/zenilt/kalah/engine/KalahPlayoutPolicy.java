@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import java.util.SplittableRandom;
+
+/**
+ * Ways to choose the moves of the simulated games.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public enum KalahPlayoutPolicy {
+
+    /**
+     * Any legal pit with the same probability
+     */
+    RANDOM,
+    /**
+     * A pit that gives an additional turn if there is one, otherwise any legal pit with the same probability
+     */
+    GREEDY;
+
+    KalahPlayoutPolicy() {
+    }
+
+    /**
+     * Chooses a move for the side to move
+     *
+     * @param board the board, it must have legal moves
+     * @param random the source of randomness
+     * @return the index of the pit to play
+     */
+    public int choose(KalahBoard board, SplittableRandom random) {
+	int legal = board.legalMoves();
+	if (this == GREEDY) {
+	    for (int i = board.getPits() - 1; i >= 0; i--) {
+		if ((legal & (1 << i)) != 0 && board.isPlayAgain(i)) {
+		    return i;
+		}
+	    }
+	}
+	return select(legal, random.nextInt(Integer.bitCount(legal)));
+    }
+
+    /**
+     * Gets the index of the n-th bit set in a mask
+     */
+    static int select(int mask, int n) {
+	for (int i = 0; i < n; i++) {
+	    mask &= mask - 1;
+	}
+	return Integer.numberOfTrailingZeros(mask);
+    }
+
+}
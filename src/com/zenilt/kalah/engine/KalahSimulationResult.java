@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahRules;
+
+/**
+ * Results of the games simulated by KalahSimulator, grouped by the first move.
+ *
+ * Wins, draws, losses and margins are seen from the side to move of the simulated position. The margin is the difference
+ * between its house and the house of the opponent at the end of the game.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahSimulationResult {
+
+    private final int maxMargin;
+    private final long[] playouts;
+    private final long[] wins;
+    private final long[] draws;
+    private final long[][] margins;
+
+    /**
+     * Constructor with no games
+     *
+     * @param maxMargin the largest possible margin, the total number of stones
+     */
+    KalahSimulationResult(int maxMargin) {
+	this.maxMargin = maxMargin;
+	this.playouts = new long[KalahRules.MAX_PITS];
+	this.wins = new long[KalahRules.MAX_PITS];
+	this.draws = new long[KalahRules.MAX_PITS];
+	this.margins = new long[KalahRules.MAX_PITS][2 * maxMargin + 1];
+    }
+
+    /**
+     * Adds the result of a game
+     */
+    void add(int firstMove, int margin) {
+	playouts[firstMove]++;
+	if (margin > 0) {
+	    wins[firstMove]++;
+	} else if (margin == 0) {
+	    draws[firstMove]++;
+	}
+	margins[firstMove][margin + maxMargin]++;
+    }
+
+    /**
+     * Adds the games of another result
+     */
+    void merge(KalahSimulationResult result) {
+	for (int i = 0; i < KalahRules.MAX_PITS; i++) {
+	    playouts[i] += result.playouts[i];
+	    wins[i] += result.wins[i];
+	    draws[i] += result.draws[i];
+	    for (int j = 0; j < margins[i].length; j++) {
+		margins[i][j] += result.margins[i][j];
+	    }
+	}
+    }
+
+    /**
+     * Gets the number of games played
+     *
+     * @return the number of games of all the first moves
+     */
+    public long getPlayouts() {
+	long total = 0;
+	for (long count : playouts) {
+	    total += count;
+	}
+	return total;
+    }
+
+    /**
+     * Gets the number of games that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return the number of games
+     */
+    public long getPlayouts(int pitIndex) {
+	return playouts[pitIndex];
+    }
+
+    /**
+     * Gets the number of games won that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return the number of games
+     */
+    public long getWins(int pitIndex) {
+	return wins[pitIndex];
+    }
+
+    /**
+     * Gets the number of tied games that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return the number of games
+     */
+    public long getDraws(int pitIndex) {
+	return draws[pitIndex];
+    }
+
+    /**
+     * Gets the number of games lost that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return the number of games
+     */
+    public long getLosses(int pitIndex) {
+	return playouts[pitIndex] - wins[pitIndex] - draws[pitIndex];
+    }
+
+    /**
+     * Gets the fraction of games won that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return a value between 0 and 1, 0 if there are no games
+     */
+    public double getWinRate(int pitIndex) {
+	return playouts[pitIndex] == 0 ? 0 : (double) wins[pitIndex] / playouts[pitIndex];
+    }
+
+    /**
+     * Gets the fraction of tied games that started with a move
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @return a value between 0 and 1, 0 if there are no games
+     */
+    public double getDrawRate(int pitIndex) {
+	return playouts[pitIndex] == 0 ? 0 : (double) draws[pitIndex] / playouts[pitIndex];
+    }
+
+    /**
+     * Gets the largest margin a game can end with
+     *
+     * @return the margin, margins go from -getMaxMargin() to getMaxMargin()
+     */
+    public int getMaxMargin() {
+	return maxMargin;
+    }
+
+    /**
+     * Gets the number of games that started with a move and ended with a margin
+     *
+     * @param pitIndex the index of the pit of the first move
+     * @param margin the difference between the houses at the end of the game
+     * @return the number of games
+     */
+    public long getMargins(int pitIndex, int margin) {
+	if (margin < -maxMargin || margin > maxMargin) {
+	    return 0;
+	}
+	return margins[pitIndex][margin + maxMargin];
+    }
+
+}
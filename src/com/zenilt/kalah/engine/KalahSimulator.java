@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays batches of simulated games from a position across a pool of threads.
+ *
+ * Each thread has its own SplittableRandom, split from the seed of the batch, and replays every game on the same
+ * KalahBoard, so no objects are created while playing. The first moves are spread evenly over the legal pits and the
+ * results are grouped by them. A batch gives the same results for the same seed and number of threads.
+ *
+ * Call shutdown() to release the threads when the simulator is no longer needed.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahSimulator {
+
+    private final int threads;
+    private final KalahPlayoutPolicy policy;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor with the number of threads and the way moves are chosen
+     *
+     * @param threads the number of threads to play with
+     * @param policy how to choose the moves of the games
+     */
+    public KalahSimulator(int threads, KalahPlayoutPolicy policy) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	this.threads = threads;
+	this.policy = policy;
+	this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-simulator");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+    }
+
+    /**
+     * Simulates games from the initial board of a mode
+     *
+     * @param mode the game mode
+     * @param playouts the number of games to play
+     * @param seed the seed for the random choices
+     * @return the results grouped by first move
+     */
+    public KalahSimulationResult simulate(KalahMode mode, long playouts, long seed) {
+	return simulate(new KalahBoard(mode), playouts, seed);
+    }
+
+    /**
+     * Simulates games from a position
+     *
+     * @param start the position, the results are seen from its side to move
+     * @param playouts the number of games to play
+     * @param seed the seed for the random choices
+     * @return the results grouped by first move
+     */
+    public KalahSimulationResult simulate(KalahBoard start, long playouts, long seed) {
+	KalahBoard position = new KalahBoard(start);
+	int maxMargin = 0;
+	for (int i = 0; i < position.getPits(); i++) {
+	    maxMargin += position.getPit(KalahBoard.SIDE_A, i) + position.getPit(KalahBoard.SIDE_B, i);
+	}
+	maxMargin += position.getHouse(KalahBoard.SIDE_A) + position.getHouse(KalahBoard.SIDE_B);
+	KalahSimulationResult result = new KalahSimulationResult(maxMargin);
+	if (position.legalMoves() == 0) {
+	    return result;
+	}
+	SplittableRandom seeds = new SplittableRandom(seed);
+	List<Future<KalahSimulationResult>> tasks = new ArrayList<>();
+	for (int i = 0; i < threads; i++) {
+	    long count = playouts / threads + (i < playouts % threads ? 1 : 0);
+	    SplittableRandom random = seeds.split();
+	    long offset = i;
+	    int margin = maxMargin;
+	    tasks.add(executor.submit(() -> play(position, count, offset, random, margin)));
+	}
+	for (Future<KalahSimulationResult> task : tasks) {
+	    try {
+		result.merge(task.get());
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		throw new IllegalStateException(ex);
+	    } catch (ExecutionException ex) {
+		throw new IllegalStateException(ex.getCause());
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Releases the threads
+     */
+    public void shutdown() {
+	executor.shutdownNow();
+    }
+
+    private KalahSimulationResult play(KalahBoard position, long count, long offset, SplittableRandom random,
+	    int maxMargin) {
+	KalahSimulationResult result = new KalahSimulationResult(maxMargin);
+	KalahBoard board = new KalahBoard(position);
+	int side = position.getSideToMove();
+	int legal = position.legalMoves();
+	int moves = Integer.bitCount(legal);
+	for (long n = 0; n < count; n++) {
+	    board.copyFrom(position);
+	    int first = KalahPlayoutPolicy.select(legal, (int) ((offset + n * threads) % moves));
+	    board.play(first);
+	    while (board.legalMoves() != 0) {
+		board.play(policy.choose(board, random));
+	    }
+	    result.add(first, board.getHouse(side) - board.getHouse(1 - side));
+	}
+	return result;
+    }
+
+}
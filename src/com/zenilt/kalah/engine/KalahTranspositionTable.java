@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.engine;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size table with the results of already searched positions, indexed by KalahBoard.getHash().
+ *
+ * The entries are kept in a long array sized from a memory limit, so the table never grows. Each bucket has two entries:
+ * the first one is only replaced by results of deeper or equal searches or of a newer search, the second one is always
+ * replaced.
+ *
+ * The table can be shared by engines running on different threads without locks: the hash is stored xored with the data,
+ * so an entry written by two threads at the same time does not match any hash and is ignored.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahTranspositionTable {
+
+    /**
+     * The score is the exact value of the position
+     */
+    public static final int EXACT = 1;
+    /**
+     * The score is a lower bound of the value of the position
+     */
+    public static final int LOWER = 2;
+    /**
+     * The score is an upper bound of the value of the position
+     */
+    public static final int UPPER = 3;
+    /**
+     * Value returned by probe when the position is not in the table
+     */
+    public static final long MISS = 0L;
+
+    private static final int BUCKET_LONGS = 4;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+    private static final int SCORE_SHIFT = 0;
+    private static final int DEPTH_SHIFT = 16;
+    private static final int BOUND_SHIFT = 24;
+    private static final int MOVE_SHIFT = 26;
+    private static final int GENERATION_SHIFT = 30;
+    private static final int NO_MOVE = 0xF;
+
+    private final long[] entries;
+    private final int mask;
+    private int generation;
+
+    /**
+     * Constructor with a memory limit
+     *
+     * @param maxBytes the maximum memory to use for the entries, at least 32 bytes
+     */
+    public KalahTranspositionTable(long maxBytes) {
+	if (maxBytes < BUCKET_BYTES) {
+	    throw new IllegalArgumentException("maxBytes must be at least " + BUCKET_BYTES);
+	}
+	long buckets = Long.highestOneBit(Math.min(maxBytes / BUCKET_BYTES, Integer.MAX_VALUE / BUCKET_LONGS));
+	this.entries = new long[(int) buckets * BUCKET_LONGS];
+	this.mask = (int) buckets - 1;
+    }
+
+    /**
+     * Gets the memory used by the entries
+     *
+     * @return the size of the table in bytes
+     */
+    public long size() {
+	return (long) entries.length * 8;
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+	Arrays.fill(entries, 0L);
+	generation = 0;
+    }
+
+    /**
+     * Marks the start of a new search, entries of previous searches become the first to be replaced
+     */
+    public void newSearch() {
+	generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Looks up a position
+     *
+     * @param hash the hash of the position
+     * @return the entry to read with getScore, getDepth, getBound and getMove, or MISS
+     */
+    public long probe(long hash) {
+	int bucket = bucket(hash);
+	long data = entries[bucket + 1];
+	if ((entries[bucket] ^ data) == hash && data != MISS) {
+	    return data;
+	}
+	data = entries[bucket + 3];
+	if ((entries[bucket + 2] ^ data) == hash && data != MISS) {
+	    return data;
+	}
+	return MISS;
+    }
+
+    /**
+     * Stores the result of a search
+     *
+     * @param hash the hash of the position
+     * @param score the score of the position
+     * @param depth the depth searched, in plies
+     * @param bound EXACT, LOWER or UPPER
+     * @param move the index of the best pit, or -1 if unknown
+     */
+    public void store(long hash, int score, int depth, int bound, int move) {
+	long data = (score & 0xFFFFL) << SCORE_SHIFT
+		| (long) Math.min(depth, 0xFF) << DEPTH_SHIFT
+		| (long) bound << BOUND_SHIFT
+		| (long) (move < 0 ? NO_MOVE : move) << MOVE_SHIFT
+		| (long) generation << GENERATION_SHIFT;
+	int bucket = bucket(hash);
+	long deep = entries[bucket + 1];
+	if ((entries[bucket] ^ deep) == hash || deep == MISS || getGeneration(deep) != generation || depth >= getDepth(deep)) {
+	    entries[bucket] = hash ^ data;
+	    entries[bucket + 1] = data;
+	} else {
+	    entries[bucket + 2] = hash ^ data;
+	    entries[bucket + 3] = data;
+	}
+    }
+
+    /**
+     * Gets the score of an entry
+     *
+     * @param entry the value returned by probe
+     * @return the score
+     */
+    public static int getScore(long entry) {
+	return (short) (entry >>> SCORE_SHIFT);
+    }
+
+    /**
+     * Gets the searched depth of an entry
+     *
+     * @param entry the value returned by probe
+     * @return the depth, in plies
+     */
+    public static int getDepth(long entry) {
+	return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Gets the kind of score of an entry
+     *
+     * @param entry the value returned by probe
+     * @return EXACT, LOWER or UPPER
+     */
+    public static int getBound(long entry) {
+	return (int) (entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    /**
+     * Gets the best move of an entry
+     *
+     * @param entry the value returned by probe
+     * @return the index of the pit, or -1 if unknown
+     */
+    public static int getMove(long entry) {
+	int move = (int) (entry >>> MOVE_SHIFT) & 0xF;
+	return move == NO_MOVE ? -1 : move;
+    }
+
+    private static int getGeneration(long entry) {
+	return (int) (entry >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    private int bucket(long hash) {
+	return ((int) (hash ^ (hash >>> 32)) & mask) * BUCKET_LONGS;
+    }
+
+}
@@ -98,7 +98,7 @@ public class KalahConsole {
 	}
     }
 
-    private static void printKalahGame(KalahGame game, PrintStream stream, Boolean withNumbers) {
+    static void printKalahGame(KalahGame game, PrintStream stream, Boolean withNumbers) {
 	String houseA = String.format("[%s]", String.format("%02d", game.getPlayerA().getHouse().size()));
 	String pitsA = "";
 	for (KalahPit pit : game.getPlayerA().getPits()) {
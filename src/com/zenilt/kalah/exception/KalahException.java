@@ -29,7 +29,11 @@ package com.zenilt.kalah.exception;
  */
 public class KalahException extends Exception {
 
+    /**
+     * Constructor without stack trace, these exceptions report expected situations and can be thrown very often
+     */
     public KalahException() {
+	super(null, null, false, false);
     }
 
 }
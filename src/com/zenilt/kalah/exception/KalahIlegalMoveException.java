@@ -29,7 +29,11 @@ package com.zenilt.kalah.exception;
  */
 public class KalahIlegalMoveException extends Exception {
 
+    /**
+     * Constructor without stack trace, these exceptions report expected situations and can be thrown very often
+     */
     public KalahIlegalMoveException() {
+	super(null, null, false, false);
     }
 
 }
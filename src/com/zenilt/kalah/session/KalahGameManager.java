@@ -0,0 +1,388 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.session;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahCodec;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import com.zenilt.kalah.exception.KalahIlegalMoveException;
+import com.zenilt.kalah.exception.KalahUnknownGameException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of concurrent games, for servers hosting many of them.
+ *
+ * Games are identified by a number and kept in a concurrent map. The operations on a game are queued and run one after
+ * the other by a pool of threads, like the messages of an actor, so double clicks and requests from several threads
+ * never race, and different games never wait for each other. Each operation returns a future with the state of the game
+ * after it, or with the KalahException or KalahIlegalMoveException that KalahGame would throw.
+ *
+ * While idle, a game takes a few dozen bytes instead of the objects of a KalahGame. Games not used for longer than the
+ * idle timeout are removed, and operations on them fail with KalahUnknownGameException.
+ *
+ * With a KalahJournal the games survive restarts: every operation is written to it and its future completes once the
+ * operation is on disk, and a new manager restores the games from the last snapshot and the operations after it. Call
+ * snapshot() periodically to keep the journal short.
+ *
+ * Call shutdown() to release the threads when the manager is no longer needed, and then close the journal.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahGameManager {
+
+    private final ConcurrentHashMap<Long, KalahSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService expiration;
+    private final ThreadLocal<KalahBoard> boards = ThreadLocal.withInitial(() -> new KalahBoard(KalahMode.STONES_3));
+    private final long idleTimeout;
+    private final KalahJournal journal;
+
+    /**
+     * Constructor with the number of threads and the idle timeout
+     *
+     * @param threads the number of threads to run the operations
+     * @param idleTimeout the time after the last operation a game is removed, in milliseconds
+     */
+    public KalahGameManager(int threads, long idleTimeout) {
+	this(threads, idleTimeout, null);
+    }
+
+    /**
+     * Constructor with the number of threads, the idle timeout and the journal to restore the games from and write the
+     * operations to
+     *
+     * @param threads the number of threads to run the operations
+     * @param idleTimeout the time after the last operation a game is removed, in milliseconds
+     * @param journal the journal, or null to keep the games only in memory
+     * @throws UncheckedIOException if the journal can't be read
+     */
+    public KalahGameManager(int threads, long idleTimeout, KalahJournal journal) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	if (idleTimeout < 1) {
+	    throw new IllegalArgumentException("idleTimeout must be at least 1");
+	}
+	this.idleTimeout = idleTimeout;
+	this.journal = journal;
+	if (journal != null) {
+	    try {
+		restore();
+	    } catch (IOException ex) {
+		throw new UncheckedIOException(ex);
+	    }
+	}
+	this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-games");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	this.expiration = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-games-expiration");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	long period = Math.max(1, idleTimeout / 2);
+	expiration.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a game, not started yet
+     *
+     * @param mode the game mode
+     * @return the id of the game
+     */
+    public long create(KalahMode mode) {
+	long id = ids.incrementAndGet();
+	sessions.put(id, new KalahSession(id, mode, new KalahBoard(mode), false, System.currentTimeMillis()));
+	if (journal != null) {
+	    journal.append(id, KalahJournal.CREATE, mode.ordinal());
+	}
+	return id;
+    }
+
+    /**
+     * Starts a game
+     *
+     * @param id the id of the game
+     * @return the state after starting it, or KalahException if it was already started
+     */
+    public CompletableFuture<KalahGameState> start(long id) {
+	return submit(id, KalahSession.START);
+    }
+
+    /**
+     * Generates a move for the current player of a game with all the stones in the choosen pit
+     *
+     * @param id the id of the game
+     * @param pitIndex the index of the pit
+     * @return the state after the move, or KalahException if the game is not being played, or KalahIlegalMoveException
+     * if the move is illegal
+     */
+    public CompletableFuture<KalahGameState> move(long id, int pitIndex) {
+	return submit(id, pitIndex < 0 ? KalahSession.NO_PIT : pitIndex);
+    }
+
+    /**
+     * Gets the state of a game, after the operations already queued
+     *
+     * @param id the id of the game
+     * @return the state of the game
+     */
+    public CompletableFuture<KalahGameState> get(long id) {
+	return submit(id, KalahSession.STATE);
+    }
+
+    /**
+     * Removes a game, operations already queued still run
+     *
+     * @param id the id of the game
+     * @return true if the game existed
+     */
+    public boolean remove(long id) {
+	if (sessions.remove(id) == null) {
+	    return false;
+	}
+	if (journal != null) {
+	    journal.append(id, KalahJournal.REMOVE, 0);
+	}
+	return true;
+    }
+
+    /**
+     * Gets the number of games
+     *
+     * @return the number of games, started or not
+     */
+    public int size() {
+	return sessions.size();
+    }
+
+    /**
+     * Removes the games idle for longer than the timeout, it runs periodically
+     */
+    public void expire() {
+	long limit = System.currentTimeMillis() - idleTimeout;
+	for (KalahSession session : sessions.values()) {
+	    if (session.getLastAccess() < limit && session.expire() && sessions.remove(session.id, session)
+		    && journal != null) {
+		journal.append(session.id, KalahJournal.REMOVE, 0);
+	    }
+	}
+    }
+
+    /**
+     * Writes a snapshot of all the games to the journal, so a restart only replays the operations after it
+     *
+     * @throws IOException if the snapshot can't be written
+     * @throws IllegalStateException if there is no journal
+     */
+    public synchronized void snapshot() throws IOException {
+	if (journal == null) {
+	    throw new IllegalStateException("There is no journal");
+	}
+	//operations written before this position are applied to the games before their snapshot requests run
+	long position = journal.position();
+	long lastId = ids.get();
+	List<CompletableFuture<KalahGameState>> states = new ArrayList<>(sessions.size());
+	for (KalahSession session : sessions.values()) {
+	    states.add(submit(session.id, KalahSession.SNAPSHOT));
+	}
+	ByteBuffer games = ByteBuffer.allocate(states.size() * KalahJournal.SNAPSHOT_GAME_BYTES);
+	for (CompletableFuture<KalahGameState> future : states) {
+	    KalahGameState state;
+	    try {
+		state = future.get();
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		throw new IOException(ex);
+	    } catch (ExecutionException ex) {
+		//removed meanwhile, the journal has its removal
+		continue;
+	    }
+	    games.putLong(state.getId());
+	    games.putLong(state.position);
+	    KalahCodec.encode(state.getMode(), state.getStatus(), state.board, games);
+	}
+	games.flip();
+	journal.snapshot(position, lastId, games);
+    }
+
+    /**
+     * Releases the threads, operations not run yet never complete
+     */
+    public void shutdown() {
+	expiration.shutdownNow();
+	executor.shutdownNow();
+    }
+
+    private CompletableFuture<KalahGameState> submit(long id, int pitIndex) {
+	CompletableFuture<KalahGameState> result = new CompletableFuture<>();
+	KalahSession session = sessions.get(id);
+	if (session == null) {
+	    result.completeExceptionally(new KalahUnknownGameException());
+	    return result;
+	}
+	try {
+	    if (session.push(new KalahSession.Request(pitIndex, result))) {
+		executor.execute(() -> drain(session));
+	    }
+	} catch (IllegalStateException ex) {
+	    result.completeExceptionally(new KalahUnknownGameException());
+	}
+	return result;
+    }
+
+    /**
+     * Runs the queued operations of a game until there are none left
+     */
+    private void drain(KalahSession session) {
+	KalahBoard board = boards.get();
+	for (KalahSession.Request request = session.take(); request != null; request = session.take()) {
+	    session.load(board);
+	    session.touch(System.currentTimeMillis());
+	    for (; request != null; request = request.next) {
+		CompletableFuture<KalahGameState> result = request.result;
+		try {
+		    long position = session.getLastPosition();
+		    KalahGameState state = run(session, board, request.pitIndex);
+		    if (journal == null || session.getLastPosition() == position) {
+			result.complete(state);
+		    } else {
+			journal.sync(session.getLastPosition()).whenComplete((done, error) -> {
+			    if (error == null) {
+				result.complete(state);
+			    } else {
+				result.completeExceptionally(error);
+			    }
+			});
+		    }
+		} catch (KalahException | KalahIlegalMoveException | RuntimeException ex) {
+		    session.load(board);
+		    result.completeExceptionally(ex);
+		}
+	    }
+	}
+    }
+
+    private KalahGameState run(KalahSession session, KalahBoard board, int pitIndex)
+	    throws KalahException, KalahIlegalMoveException {
+	KalahStatus status = session.status(board);
+	if (pitIndex == KalahSession.STATE || pitIndex == KalahSession.SNAPSHOT) {
+	    return state(session, board, status, null);
+	}
+	if (pitIndex == KalahSession.START) {
+	    if (status != KalahStatus.INIT) {
+		throw new KalahException();
+	    }
+	    log(session, KalahJournal.START, 0);
+	    session.store(board, true);
+	    return state(session, board, session.status(board), null);
+	}
+	if (status != KalahStatus.PLAYINGA && status != KalahStatus.PLAYINGB) {
+	    throw new KalahException();
+	}
+	KalahMove move = KalahBoard.getMove(board.play(pitIndex));
+	if (move == KalahMove.ILEGAL) {
+	    throw new KalahIlegalMoveException();
+	}
+	log(session, KalahJournal.MOVE, pitIndex);
+	session.store(board, true);
+	return state(session, board, session.status(board), move);
+    }
+
+    private void log(KalahSession session, int type, int value) {
+	if (journal != null) {
+	    session.setLastPosition(journal.append(session.id, type, value));
+	}
+    }
+
+    private KalahGameState state(KalahSession session, KalahBoard board, KalahStatus status, KalahMove move) {
+	KalahGameState state = new KalahGameState(session.id, session.getMode(), status, new KalahBoard(board), move);
+	state.position = session.getLastPosition();
+	return state;
+    }
+
+    /**
+     * Loads the games of the last snapshot of the journal and replays the operations after it
+     */
+    private void restore() throws IOException {
+	long now = System.currentTimeMillis();
+	ByteBuffer games = journal.getSnapshotGames();
+	long lastId = journal.getSnapshotLastId();
+	while (games.hasRemaining()) {
+	    long id = games.getLong();
+	    long position = games.getLong();
+	    KalahGame game = KalahCodec.decode(games);
+	    KalahSession session = new KalahSession(id, game.getMode(), game.getBoard(),
+		    game.getStatus() != KalahStatus.INIT, now);
+	    session.setLastPosition(position);
+	    sessions.put(id, session);
+	}
+	KalahBoard board = new KalahBoard(KalahMode.STONES_3);
+	long[] highest = {lastId};
+	journal.replay((position, id, type, value) -> {
+	    highest[0] = Math.max(highest[0], id);
+	    if (type == KalahJournal.CREATE) {
+		KalahMode mode = KalahMode.values()[value];
+		sessions.putIfAbsent(id, new KalahSession(id, mode, new KalahBoard(mode), false, now));
+		return;
+	    }
+	    if (type == KalahJournal.REMOVE) {
+		sessions.remove(id);
+		return;
+	    }
+	    KalahSession session = sessions.get(id);
+	    if (session == null || position <= session.getLastPosition()) {
+		//removed later, or already in the snapshot
+		return;
+	    }
+	    session.load(board);
+	    if (type == KalahJournal.MOVE) {
+		board.play(value);
+	    }
+	    session.store(board, true);
+	    session.setLastPosition(position);
+	});
+	ids.set(highest[0]);
+    }
+
+}
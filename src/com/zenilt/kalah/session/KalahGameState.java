@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.session;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahStatus;
+
+/**
+ * State of a game of a KalahGameManager after an operation.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahGameState {
+
+    private final long id;
+    private final KalahMode mode;
+    private final KalahStatus status;
+    final KalahBoard board;
+    private final KalahMove move;
+    long position = -1;
+
+    KalahGameState(long id, KalahMode mode, KalahStatus status, KalahBoard board, KalahMove move) {
+	this.id = id;
+	this.mode = mode;
+	this.status = status;
+	this.board = board;
+	this.move = move;
+    }
+
+    /**
+     * Gets the id of the game
+     *
+     * @return the id
+     */
+    public long getId() {
+	return id;
+    }
+
+    /**
+     * Gets the mode the game was created with
+     *
+     * @return the game mode
+     */
+    public KalahMode getMode() {
+	return mode;
+    }
+
+    /**
+     * Gets the game status
+     *
+     * @return the game status
+     */
+    public KalahStatus getStatus() {
+	return status;
+    }
+
+    /**
+     * Gets the board of the game
+     *
+     * @return a copy of the board
+     */
+    public KalahBoard getBoard() {
+	return new KalahBoard(board);
+    }
+
+    /**
+     * Gets the result of the move of the operation
+     *
+     * @return the type of move, or null if the operation was not a move
+     */
+    public KalahMove getMove() {
+	return move;
+    }
+
+}
@@ -0,0 +1,453 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.session;
+
+import com.zenilt.kalah.KalahCodec;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Append-only log of the operations of a KalahGameManager, so its games survive restarts.
+ *
+ * Operations are written as 16 byte entries to memory mapped segment files of a fixed size, the position of an entry is
+ * its offset from the start of the first segment ever written. A background thread forces the written pages to disk and
+ * completes the futures of all the entries written meanwhile at once, so one fsync covers many operations.
+ *
+ * A snapshot holds the 13 byte KalahCodec position of every live game and the journal position it was taken at. Once it
+ * is written the segments before that position are deleted, and recovery only replays the entries after it.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahJournal {
+
+    /**
+     * Size of the segment files when none is given, in bytes
+     */
+    public static final int SEGMENT_SIZE = 64 << 20;
+
+    static final int CREATE = 1;
+    static final int START = 2;
+    static final int MOVE = 3;
+    static final int REMOVE = 4;
+    static final int ENTRY_BYTES = 16;
+    static final int SNAPSHOT_GAME_BYTES = 16 + KalahCodec.POSITION_BYTES;
+
+    private static final int MAGIC = 0x4B414C53;
+    private static final int VERSION = 1;
+    private static final int SNAPSHOT_HEADER = 28;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object lock = new Object();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final List<MappedByteBuffer> rolled = new ArrayList<>();
+    private final Thread flusher;
+    private long snapshotPosition;
+    private long snapshotLastId;
+    private ByteBuffer snapshotGames;
+    private long segment;
+    private MappedByteBuffer current;
+    private long end;
+    private long synced;
+    private boolean closed;
+
+    private KalahJournal(Path directory, int segmentSize) {
+	this.directory = directory;
+	this.segmentSize = segmentSize;
+	this.flusher = new Thread(this::flush, "kalah-journal");
+	this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal of a directory, creating it if it is empty
+     *
+     * @param directory the directory of the segments and the snapshots
+     * @return the journal
+     * @throws IOException if the files can't be read or written
+     */
+    public static KalahJournal open(Path directory) throws IOException {
+	return open(directory, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal of a directory with the size of the segments, creating it if it is empty
+     *
+     * @param directory the directory of the segments and the snapshots
+     * @param segmentSize the size of new segment files, a multiple of 16 bytes, existing segments keep their size
+     * @return the journal
+     * @throws IOException if the files can't be read or written
+     */
+    public static KalahJournal open(Path directory, int segmentSize) throws IOException {
+	if (segmentSize < ENTRY_BYTES || segmentSize % ENTRY_BYTES != 0) {
+	    throw new IllegalArgumentException("segmentSize must be a positive multiple of " + ENTRY_BYTES);
+	}
+	Files.createDirectories(directory);
+	TreeMap<Long, Path> segments = list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+	TreeMap<Long, Path> snapshots = list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+	int size = segments.isEmpty() ? segmentSize : (int) Files.size(segments.firstEntry().getValue());
+	KalahJournal journal = new KalahJournal(directory, size);
+	if (!snapshots.isEmpty()) {
+	    journal.readSnapshot(snapshots.lastEntry().getValue());
+	}
+	journal.recover(segments);
+	journal.flusher.start();
+	return journal;
+    }
+
+    /**
+     * Forces the written entries to disk and stops the background thread
+     *
+     * @throws IOException if the thread was interrupted while stopping
+     */
+    public void close() throws IOException {
+	synchronized (lock) {
+	    closed = true;
+	    lock.notifyAll();
+	}
+	try {
+	    flusher.join();
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException(ex);
+	}
+    }
+
+    /**
+     * Gets the position the next entry will be written at
+     *
+     * @return the position
+     */
+    public long position() {
+	synchronized (lock) {
+	    return end;
+	}
+    }
+
+    /**
+     * Gets the position of the last snapshot, where the replay starts
+     */
+    long getSnapshotPosition() {
+	return snapshotPosition;
+    }
+
+    /**
+     * Gets the highest game id of the last snapshot
+     */
+    long getSnapshotLastId() {
+	return snapshotLastId;
+    }
+
+    /**
+     * Gets the games of the last snapshot, each one its id, the position of its last entry and its encoded position
+     *
+     * @return the games, or an empty buffer if there is no snapshot
+     */
+    ByteBuffer getSnapshotGames() {
+	return snapshotGames.duplicate();
+    }
+
+    /**
+     * Writes an entry
+     *
+     * @return the position of the entry
+     * @throws IllegalStateException if the journal is closed
+     * @throws java.io.UncheckedIOException if a new segment can't be created
+     */
+    long append(long id, int type, int value) {
+	synchronized (lock) {
+	    if (closed) {
+		throw new IllegalStateException("The journal is closed");
+	    }
+	    int offset = (int) (end % segmentSize);
+	    if (offset == 0 && end / segmentSize != segment) {
+		rolled.add(current);
+		try {
+		    current = map(end / segmentSize);
+		} catch (IOException ex) {
+		    throw new UncheckedIOException(ex);
+		}
+		segment = end / segmentSize;
+	    }
+	    long position = end;
+	    current.putLong(offset, id);
+	    current.putInt(offset + 8, type << 8 | value);
+	    current.putInt(offset + 12, check(position, id, type << 8 | value));
+	    end += ENTRY_BYTES;
+	    return position;
+	}
+    }
+
+    /**
+     * Waits for an entry to be on disk
+     *
+     * @param position the position of the entry
+     * @return a future completed once the entry was forced to disk
+     */
+    CompletableFuture<Void> sync(long position) {
+	CompletableFuture<Void> result = new CompletableFuture<>();
+	synchronized (lock) {
+	    if (position < synced) {
+		result.complete(null);
+	    } else if (closed) {
+		result.completeExceptionally(new IllegalStateException("The journal is closed"));
+	    } else {
+		waiters.add(new Waiter(position, result));
+		lock.notifyAll();
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Calls a visitor with the entries written after the last snapshot, in order
+     *
+     * @throws IOException if a segment can't be read
+     */
+    void replay(Visitor visitor) throws IOException {
+	long last = position();
+	for (long position = snapshotPosition; position < last;) {
+	    long index = position / segmentSize;
+	    ByteBuffer buffer = index == segment ? current : map(index);
+	    for (int offset = (int) (position % segmentSize); offset < segmentSize && position < last;
+		    offset += ENTRY_BYTES, position += ENTRY_BYTES) {
+		int operation = buffer.getInt(offset + 8);
+		visitor.visit(position, buffer.getLong(offset), operation >>> 8, operation & 0xFF);
+	    }
+	}
+    }
+
+    /**
+     * Writes a snapshot and deletes the segments and snapshots it replaces
+     *
+     * @param position the journal position before the games were read
+     * @param lastId the highest game id given so far
+     * @param games the games, as returned by getSnapshotGames
+     * @throws IOException if the snapshot can't be written
+     */
+    void snapshot(long position, long lastId, ByteBuffer games) throws IOException {
+	ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+	header.putInt(MAGIC);
+	header.putInt(VERSION);
+	header.putLong(position);
+	header.putLong(lastId);
+	header.putInt(games.remaining() / SNAPSHOT_GAME_BYTES);
+	header.flip();
+	Path file = directory.resolve(name(SNAPSHOT_PREFIX, position, SNAPSHOT_SUFFIX));
+	Path temporary = directory.resolve(file.getFileName() + ".tmp");
+	try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING)) {
+	    while (header.hasRemaining()) {
+		channel.write(header);
+	    }
+	    while (games.hasRemaining()) {
+		channel.write(games);
+	    }
+	    channel.force(true);
+	}
+	Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	for (Path old : list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(position).values()) {
+	    Files.delete(old);
+	}
+	for (Path old : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX).headMap(position / segmentSize).values()) {
+	    Files.delete(old);
+	}
+    }
+
+    private void readSnapshot(Path file) throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+	if (buffer.remaining() < SNAPSHOT_HEADER || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+	    throw new IOException("Not a snapshot: " + file);
+	}
+	snapshotPosition = buffer.getLong();
+	snapshotLastId = buffer.getLong();
+	if (buffer.getInt() * (long) SNAPSHOT_GAME_BYTES != buffer.remaining()) {
+	    throw new IOException("Corrupt snapshot: " + file);
+	}
+	snapshotGames = buffer.slice();
+    }
+
+    /**
+     * Finds the end of the journal, the first entry that was never completely written
+     */
+    private void recover(TreeMap<Long, Path> segments) throws IOException {
+	if (snapshotGames == null) {
+	    snapshotGames = ByteBuffer.allocate(0);
+	}
+	end = snapshotPosition;
+	segment = end / segmentSize;
+	current = map(segment);
+	while (true) {
+	    int offset = (int) (end % segmentSize);
+	    if (offset == 0 && end / segmentSize != segment) {
+		if (!segments.containsKey(end / segmentSize)) {
+		    break;
+		}
+		segment = end / segmentSize;
+		current = map(segment);
+	    }
+	    long id = current.getLong(offset);
+	    int operation = current.getInt(offset + 8);
+	    if (current.getInt(offset + 12) != check(end, id, operation) || id == 0) {
+		break;
+	    }
+	    end += ENTRY_BYTES;
+	}
+	if (end % segmentSize != 0 || end / segmentSize == segment) {
+	    //clear what follows the end, a torn write could have left stale entries behind it
+	    for (int offset = (int) (end % segmentSize); offset < segmentSize; offset += ENTRY_BYTES) {
+		if (current.getLong(offset) != 0 || current.getLong(offset + 8) != 0) {
+		    current.putLong(offset, 0);
+		    current.putLong(offset + 8, 0);
+		}
+	    }
+	    current.force();
+	}
+	for (Path later : segments.tailMap(segment, false).values()) {
+	    Files.delete(later);
+	}
+	synced = end;
+    }
+
+    /**
+     * Forces the written entries in batches and completes the futures of the entries it covered
+     */
+    private void flush() {
+	List<Waiter> done = new ArrayList<>();
+	List<MappedByteBuffer> buffers = new ArrayList<>();
+	while (true) {
+	    long target;
+	    boolean stop;
+	    synchronized (lock) {
+		while (!closed && waiters.isEmpty()) {
+		    try {
+			lock.wait();
+		    } catch (InterruptedException ex) {
+			closed = true;
+		    }
+		}
+		stop = closed;
+		target = end;
+		buffers.addAll(rolled);
+		rolled.clear();
+		buffers.add(current);
+	    }
+	    for (MappedByteBuffer buffer : buffers) {
+		buffer.force();
+	    }
+	    buffers.clear();
+	    synchronized (lock) {
+		synced = target;
+		while (!waiters.isEmpty() && (waiters.peek().position < synced || stop)) {
+		    done.add(waiters.poll());
+		}
+	    }
+	    for (Waiter waiter : done) {
+		if (waiter.position < target) {
+		    waiter.result.complete(null);
+		} else {
+		    waiter.result.completeExceptionally(new IllegalStateException("The journal is closed"));
+		}
+	    }
+	    done.clear();
+	    if (stop) {
+		return;
+	    }
+	}
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+	Path path = directory.resolve(name(SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+	    if (file.length() != segmentSize) {
+		file.setLength(segmentSize);
+	    }
+	    return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+	}
+    }
+
+    private static int check(long position, long id, int operation) {
+	long mixed = (position * 0x9E3779B97F4A7C15L) ^ (id * 0xBF58476D1CE4E5B9L) ^ operation;
+	mixed = (mixed ^ (mixed >>> 31)) * 0x94D049BB133111EBL;
+	return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static String name(String prefix, long number, String suffix) {
+	return String.format("%s%019d%s", prefix, number, suffix);
+    }
+
+    private static TreeMap<Long, Path> list(Path directory, String prefix, String suffix) throws IOException {
+	TreeMap<Long, Path> files = new TreeMap<>();
+	try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+	    for (Path file : stream) {
+		String name = file.getFileName().toString();
+		try {
+		    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+		} catch (NumberFormatException ex) {
+		    //not one of ours
+		}
+	    }
+	}
+	return files;
+    }
+
+    /**
+     * Receives the entries of a replay
+     */
+    interface Visitor {
+
+	void visit(long position, long id, int type, int value);
+
+    }
+
+    private static final class Waiter {
+
+	final long position;
+	final CompletableFuture<Void> result;
+
+	Waiter(long position, CompletableFuture<Void> result) {
+	    this.position = position;
+	    this.result = result;
+	}
+
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.session;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahRules;
+import com.zenilt.kalah.KalahStatus;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A game of a KalahGameManager, kept as two longs while it is idle.
+ *
+ * The stones of the 14 squares take 7 bits each, followed by the side to move, whether the game was started and the
+ * mode. It also keeps the journal position of the last operation applied, when the manager has a KalahJournal. Requests
+ * are pushed on a lock-free stack and the one that finds the session idle schedules it, so only one thread at a time runs
+ * the requests of a game, in the order they arrived.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+final class KalahSession {
+
+    static final int START = -1;
+    static final int STATE = -2;
+    static final int SNAPSHOT = -3;
+    //a pit no board has, negative pits would be taken for the operations above
+    static final int NO_PIT = Integer.MAX_VALUE;
+
+    private static final int STONE_BITS = 7;
+    private static final int LOW_SQUARES = Long.SIZE / STONE_BITS;
+    private static final int SQUARES = 2 * KalahBoard.PITS + 2;
+    private static final int SIDE_BIT = (SQUARES - LOW_SQUARES) * STONE_BITS;
+    private static final int STARTED_BIT = SIDE_BIT + 1;
+    private static final int MODE_SHIFT = STARTED_BIT + 1;
+    private static final KalahMode[] MODES = KalahMode.values();
+    private static final KalahBoard[] INITIAL = initialBoards();
+    private static final long STONE_MASK = (1L << STONE_BITS) - 1;
+    /**
+     * Head of the stack while the requests are being run
+     */
+    static final Request RUNNING = new Request(0, null);
+    /**
+     * Head of the stack once the session expired
+     */
+    static final Request EXPIRED = new Request(0, null);
+    private static final AtomicReferenceFieldUpdater<KalahSession, Request> HEAD
+	    = AtomicReferenceFieldUpdater.newUpdater(KalahSession.class, Request.class, "head");
+
+    final long id;
+    private long low;
+    private long high;
+    private long lastPosition = -1;
+    private volatile long lastAccess;
+    private volatile Request head;
+
+    KalahSession(long id, KalahMode mode, KalahBoard board, boolean started, long now) {
+	this.id = id;
+	this.lastAccess = now;
+	this.high = (long) mode.ordinal() << MODE_SHIFT;
+	store(board, started);
+    }
+
+    /**
+     * Gets the time of the last request run
+     */
+    long getLastAccess() {
+	return lastAccess;
+    }
+
+    /**
+     * Adds a request
+     *
+     * @return true if the session was idle and must be scheduled, false if it is already scheduled
+     * @throws IllegalStateException if the session expired
+     */
+    boolean push(Request request) {
+	while (true) {
+	    Request current = head;
+	    if (current == EXPIRED) {
+		throw new IllegalStateException();
+	    }
+	    request.next = current;
+	    if (HEAD.compareAndSet(this, current, request)) {
+		return current == null;
+	    }
+	}
+    }
+
+    /**
+     * Takes the requests pushed since the last call, in arrival order
+     *
+     * @return the first request, or null if there are none and the session became idle
+     */
+    Request take() {
+	Request taken = HEAD.getAndSet(this, RUNNING);
+	if (taken == RUNNING) {
+	    if (HEAD.compareAndSet(this, RUNNING, null)) {
+		return null;
+	    }
+	    taken = HEAD.getAndSet(this, RUNNING);
+	}
+	Request first = null;
+	while (taken != null && taken != RUNNING) {
+	    Request next = taken.next;
+	    taken.next = first;
+	    first = taken;
+	    taken = next;
+	}
+	return first;
+    }
+
+    /**
+     * Marks the session as expired if it is idle
+     *
+     * @return true if it expired, false if it has requests
+     */
+    boolean expire() {
+	return HEAD.compareAndSet(this, null, EXPIRED);
+    }
+
+    /**
+     * Sets up a board with the position of the game
+     */
+    void load(KalahBoard board) {
+	KalahMode mode = getMode();
+	if (board.getRules() != KalahRules.of(mode)) {
+	    board.copyFrom(INITIAL[mode.ordinal()]);
+	}
+	for (int square = 0; square < SQUARES; square++) {
+	    long bits = square < LOW_SQUARES ? low >>> (square * STONE_BITS)
+		    : high >>> ((square - LOW_SQUARES) * STONE_BITS);
+	    setStones(board, square, (int) (bits & STONE_MASK));
+	}
+	board.setSideToMove((int) (high >>> SIDE_BIT) & 1);
+    }
+
+    /**
+     * Saves the position of a board as the position of the game
+     */
+    void store(KalahBoard board, boolean started) {
+	long packedLow = 0;
+	long packedHigh = 0;
+	for (int square = 0; square < SQUARES; square++) {
+	    long stones = getStones(board, square);
+	    if (square < LOW_SQUARES) {
+		packedLow |= stones << (square * STONE_BITS);
+	    } else {
+		packedHigh |= stones << ((square - LOW_SQUARES) * STONE_BITS);
+	    }
+	}
+	packedHigh |= (long) board.getSideToMove() << SIDE_BIT;
+	packedHigh |= (started ? 1L : 0L) << STARTED_BIT;
+	packedHigh |= high & (0x3L << MODE_SHIFT);
+	low = packedLow;
+	high = packedHigh;
+    }
+
+    /**
+     * Gets the mode the game was created with
+     */
+    KalahMode getMode() {
+	return MODES[(int) (high >>> MODE_SHIFT) & 0x3];
+    }
+
+    /**
+     * Gets the journal position of the last operation applied, -1 if none
+     */
+    long getLastPosition() {
+	return lastPosition;
+    }
+
+    void setLastPosition(long position) {
+	lastPosition = position;
+    }
+
+    boolean isStarted() {
+	return (high >>> STARTED_BIT & 1) != 0;
+    }
+
+    /**
+     * Gets the status of the game, the board must be loaded with its position
+     */
+    KalahStatus status(KalahBoard board) {
+	if (!isStarted()) {
+	    return KalahStatus.INIT;
+	}
+	if (board.isFinished()) {
+	    return KalahStatus.FINISHED;
+	}
+	return board.getSideToMove() == KalahBoard.SIDE_A ? KalahStatus.PLAYINGA : KalahStatus.PLAYINGB;
+    }
+
+    void touch(long now) {
+	lastAccess = now;
+    }
+
+    private static KalahBoard[] initialBoards() {
+	KalahBoard[] boards = new KalahBoard[MODES.length];
+	for (KalahMode mode : MODES) {
+	    boards[mode.ordinal()] = new KalahBoard(mode);
+	}
+	return boards;
+    }
+
+    private static int getStones(KalahBoard board, int square) {
+	if (square == KalahBoard.PITS) {
+	    return board.getHouse(KalahBoard.SIDE_A);
+	}
+	if (square == SQUARES - 1) {
+	    return board.getHouse(KalahBoard.SIDE_B);
+	}
+	return square < KalahBoard.PITS ? board.getPit(KalahBoard.SIDE_A, square)
+		: board.getPit(KalahBoard.SIDE_B, square - KalahBoard.PITS - 1);
+    }
+
+    private static void setStones(KalahBoard board, int square, int stones) {
+	if (square == KalahBoard.PITS) {
+	    board.setHouse(KalahBoard.SIDE_A, stones);
+	} else if (square == SQUARES - 1) {
+	    board.setHouse(KalahBoard.SIDE_B, stones);
+	} else if (square < KalahBoard.PITS) {
+	    board.setPit(KalahBoard.SIDE_A, square, stones);
+	} else {
+	    board.setPit(KalahBoard.SIDE_B, square - KalahBoard.PITS - 1, stones);
+	}
+    }
+
+    /**
+     * A pending operation on the game
+     */
+    static final class Request {
+
+	final int pitIndex;
+	final CompletableFuture<KalahGameState> result;
+	Request next;
+
+	Request(int pitIndex, CompletableFuture<KalahGameState> result) {
+	    this.pitIndex = pitIndex;
+	    this.result = result;
+	}
+
+    }
+
+}
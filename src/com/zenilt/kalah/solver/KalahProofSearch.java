@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.solver;
+
+import com.zenilt.kalah.KalahBoard;
+import java.util.Arrays;
+
+/**
+ * Exact solver of Kalah positions with depth-first proof-number search.
+ *
+ * The value of a position is how many more stones the side to move will add to its house than the opponent until the
+ * end of the game, with best play from both sides. Proof-number search answers whether the value reaches a target, so
+ * the value is found with a few searches: first whether the side to move wins and whether it draws, then halving the
+ * range left. The game is seen from the side to move of every position: a move that hands the turn over negates the
+ * question for the opponent, and a PLAYAGAIN move asks the same side again with the target lowered by the stones it
+ * won, so the extra turns need nothing special.
+ *
+ * The positions are kept in a KalahProofTable that searches on other threads can share, each search plays on its own
+ * copy of the board. A position that took little work may be replaced in the table and searched again, but its proven
+ * bounds only get tighter, so the result is exact whatever the size of the table.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahProofSearch {
+
+    /**
+     * Value returned by solve when the search was stopped
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int INFINITE = KalahProofTable.INFINITE;
+    private static final int MAX_NUMBER = INFINITE - 1;
+    //a child is searched until its number grows a quarter past the one of its best sibling, which saves most of the
+    //switching back and forth between siblings with close numbers
+    private static final double EPSILON = 0.25;
+
+    private final KalahProofTable table;
+    private final long[] entry;
+    private KalahBoard board;
+    private int stones;
+    private long nodes;
+    private int proof;
+    private int disproof;
+    private int[][] proofs;
+    private int[][] disproofs;
+    private int[][] targets;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor with the table to share
+     *
+     * @param table the table of the positions searched
+     */
+    public KalahProofSearch(KalahProofTable table) {
+	this.table = table;
+	this.entry = new long[2];
+	this.proofs = new int[0][];
+	this.disproofs = new int[0][];
+	this.targets = new int[0][];
+    }
+
+    /**
+     * Finds the value of a position
+     *
+     * @param position the position, it is not modified
+     * @return the stones the side to move will add to its house minus the ones the opponent will add, or UNKNOWN if the
+     * search was stopped
+     */
+    public int solve(KalahBoard position) {
+	board = new KalahBoard(position);
+	stones = 0;
+	for (int side = KalahBoard.SIDE_A; side <= KalahBoard.SIDE_B; side++) {
+	    stones += board.getHouse(side);
+	    for (int i = 0; i < board.getPits(); i++) {
+		stones += board.getPit(side, i);
+	    }
+	}
+	int side = board.getSideToMove();
+	int material = board.getHouse(side) - board.getHouse(1 - side);
+	int remaining = remaining();
+	int lower = board.isFinished() ? 0 : -remaining;
+	int upper = board.isFinished() ? 0 : remaining;
+	if (table.probe(board.getPitsHash(), entry)) {
+	    lower = Math.max(lower, KalahProofTable.getLower(entry));
+	    upper = Math.min(upper, KalahProofTable.getUpper(entry));
+	}
+	while (lower < upper) {
+	    //whether it wins, then whether it draws, then the margin
+	    int target;
+	    if (lower < 1 - material && 1 - material <= upper) {
+		target = 1 - material;
+	    } else if (lower < -material && -material <= upper) {
+		target = -material;
+	    } else {
+		target = Math.floorDiv(lower + upper + 1, 2);
+	    }
+	    search(0, target, INFINITE, INFINITE);
+	    if (stopped) {
+		return UNKNOWN;
+	    }
+	    if (proof == 0) {
+		lower = target;
+	    } else {
+		upper = target - 1;
+	    }
+	}
+	return lower;
+    }
+
+    /**
+     * Stops the search in progress and the ones after it, solve returns UNKNOWN until reset() is called. It can be
+     * called from any thread, at any time
+     */
+    public void stop() {
+	stopped = true;
+    }
+
+    /**
+     * Lets solve search again after stop(), call it before handing the search to the thread that solves
+     */
+    public void reset() {
+	stopped = false;
+    }
+
+    /**
+     * Gets the number of positions searched since the search was constructed
+     *
+     * @return the number of positions
+     */
+    public long getNodes() {
+	return nodes;
+    }
+
+    /**
+     * Searches whether the value of the position reaches a target until the proof number reaches maxProof or the
+     * disproof number reaches maxDisproof, and leaves the numbers in proof and disproof
+     */
+    private void search(int ply, int target, int maxProof, int maxDisproof) {
+	long start = nodes++;
+	long hash = board.getPitsHash();
+	int legal = board.legalMoves();
+	int remaining = remaining();
+	int lower = legal == 0 ? 0 : -remaining;
+	int upper = legal == 0 ? 0 : remaining;
+	if (table.probe(hash, entry)) {
+	    lower = Math.max(lower, KalahProofTable.getLower(entry));
+	    upper = Math.min(upper, KalahProofTable.getUpper(entry));
+	}
+	if (lower >= target || upper < target) {
+	    proof = lower >= target ? 0 : INFINITE;
+	    disproof = lower >= target ? INFINITE : 0;
+	    return;
+	}
+	if (ply == proofs.length) {
+	    int length = Math.max(2 * ply, 64);
+	    proofs = Arrays.copyOf(proofs, length);
+	    disproofs = Arrays.copyOf(disproofs, length);
+	    targets = Arrays.copyOf(targets, length);
+	}
+	if (proofs[ply] == null) {
+	    proofs[ply] = new int[board.getPits()];
+	    disproofs[ply] = new int[board.getPits()];
+	    targets[ply] = new int[board.getPits()];
+	}
+	int[] childProofs = proofs[ply];
+	int[] childDisproofs = disproofs[ply];
+	int[] childTargets = targets[ply];
+	//the numbers of the children are kept from the point of view of this position
+	int side = board.getSideToMove();
+	for (int i = 0; i < board.getPits(); i++) {
+	    if ((legal & (1 << i)) == 0) {
+		childProofs[i] = INFINITE;
+		childDisproofs[i] = 0;
+		continue;
+	    }
+	    int house = board.getHouse(side);
+	    long move = board.play(i);
+	    int gain = board.getHouse(side) - house;
+	    boolean again = board.getSideToMove() == side;
+	    childTargets[i] = again ? target - gain : gain - target + 1;
+	    estimate(childTargets[i]);
+	    childProofs[i] = again ? proof : disproof;
+	    childDisproofs[i] = again ? disproof : proof;
+	    board.undo(move);
+	}
+	while (true) {
+	    int best = -1;
+	    int second = INFINITE;
+	    long sum = 0;
+	    for (int i = 0; i < childProofs.length; i++) {
+		sum += childDisproofs[i];
+		if (best < 0 || childProofs[i] < childProofs[best]) {
+		    second = best < 0 ? INFINITE : childProofs[best];
+		    best = i;
+		} else if (childProofs[i] < second) {
+		    second = childProofs[i];
+		}
+	    }
+	    proof = childProofs[best];
+	    disproof = proof == 0 ? INFINITE : (int) Math.min(sum, MAX_NUMBER);
+	    if (proof >= maxProof || disproof >= maxDisproof || stopped) {
+		break;
+	    }
+	    int bestProof = second == INFINITE ? maxProof
+		    : (int) Math.min(maxProof, Math.max(second + 1L, (long) Math.ceil(second * (1 + EPSILON))));
+	    int bestDisproof = maxDisproof == INFINITE ? INFINITE : maxDisproof - disproof + childDisproofs[best];
+	    long move = board.play(best);
+	    if (board.getSideToMove() == side) {
+		search(ply + 1, childTargets[best], bestProof, bestDisproof);
+		childProofs[best] = proof;
+		childDisproofs[best] = disproof;
+	    } else {
+		search(ply + 1, childTargets[best], bestDisproof, bestProof);
+		childProofs[best] = disproof;
+		childDisproofs[best] = proof;
+	    }
+	    board.undo(move);
+	}
+	if (proof == 0) {
+	    lower = target;
+	} else if (disproof == 0) {
+	    upper = target - 1;
+	}
+	table.store(hash, target, proof, disproof, lower, upper, nodes - start);
+    }
+
+    /**
+     * Leaves in proof and disproof the numbers of the position on the board for a target, from the table, from the
+     * stones left or 1 if unknown
+     */
+    private void estimate(int target) {
+	int remaining = remaining();
+	boolean finished = board.isFinished();
+	int lower = finished ? 0 : -remaining;
+	int upper = finished ? 0 : remaining;
+	proof = 1;
+	disproof = 1;
+	if (table.probe(board.getPitsHash(), entry)) {
+	    lower = Math.max(lower, KalahProofTable.getLower(entry));
+	    upper = Math.min(upper, KalahProofTable.getUpper(entry));
+	    if (KalahProofTable.getTarget(entry) == target) {
+		proof = KalahProofTable.getProof(entry);
+		disproof = KalahProofTable.getDisproof(entry);
+	    }
+	}
+	if (lower >= target) {
+	    proof = 0;
+	    disproof = INFINITE;
+	} else if (upper < target) {
+	    proof = INFINITE;
+	    disproof = 0;
+	}
+    }
+
+    private int remaining() {
+	return stones - board.getHouse(KalahBoard.SIDE_A) - board.getHouse(KalahBoard.SIDE_B);
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.solver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed size table with the proof and disproof numbers of the positions searched by KalahProofSearch, indexed by
+ * KalahBoard.getPitsHash().
+ *
+ * Besides the numbers of the last target searched, every entry keeps the bounds of the value of the position proven so
+ * far, so the searches for other targets start from what is already known. The entries are kept in a long array sized
+ * from a memory limit, in buckets of four entries: an entry replaces the one of the bucket that took the least work to
+ * search.
+ *
+ * The table is shared by the searches of all the threads without locks: the hash is stored xored with the data, so an
+ * entry written by two threads at the same time does not match any hash and is ignored.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahProofTable {
+
+    /**
+     * Proof or disproof number of a position that is proven or disproven
+     */
+    public static final int INFINITE = Integer.MAX_VALUE;
+    /**
+     * Lower bound of a position with no value proven yet
+     */
+    public static final int NO_LOWER = Short.MIN_VALUE;
+    /**
+     * Upper bound of a position with no value proven yet
+     */
+    public static final int NO_UPPER = Short.MAX_VALUE;
+
+    static final int NO_TARGET = Short.MIN_VALUE;
+
+    private static final int ENTRY_LONGS = 3;
+    private static final int BUCKET_LONGS = 4 * ENTRY_LONGS;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+    private static final int TARGET_SHIFT = 0;
+    private static final int LOWER_SHIFT = 16;
+    private static final int UPPER_SHIFT = 32;
+    private static final int WORK_SHIFT = 48;
+    private static final long USED = 1L << 63;
+
+    private final long[] entries;
+    private final int mask;
+
+    /**
+     * Constructor with a memory limit
+     *
+     * @param maxBytes the maximum memory to use for the entries, at least 96 bytes
+     */
+    public KalahProofTable(long maxBytes) {
+	if (maxBytes < BUCKET_BYTES) {
+	    throw new IllegalArgumentException("maxBytes must be at least " + BUCKET_BYTES);
+	}
+	long buckets = Long.highestOneBit(Math.min(maxBytes / BUCKET_BYTES, Integer.MAX_VALUE / BUCKET_LONGS));
+	this.entries = new long[(int) buckets * BUCKET_LONGS];
+	this.mask = (int) buckets - 1;
+    }
+
+    /**
+     * Gets the memory used by the entries
+     *
+     * @return the size of the table in bytes
+     */
+    public long size() {
+	return (long) entries.length * 8;
+    }
+
+    /**
+     * Looks up a position
+     *
+     * @param hash the pits hash of the position
+     * @param entry where to copy the numbers and the bounds, to be read with the static methods
+     * @return true if the position was found
+     */
+    boolean probe(long hash, long[] entry) {
+	int bucket = bucket(hash);
+	for (int i = bucket; i < bucket + BUCKET_LONGS; i += ENTRY_LONGS) {
+	    long numbers = entries[i + 1];
+	    long bounds = entries[i + 2];
+	    if ((entries[i] ^ numbers ^ bounds) == hash && bounds != 0L) {
+		entry[0] = numbers;
+		entry[1] = bounds;
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Stores the result of a search, the bounds are merged with the ones already stored for the position
+     *
+     * @param hash the pits hash of the position
+     * @param target the target searched, or NO_TARGET to keep only the bounds
+     * @param proof the proof number for the target
+     * @param disproof the disproof number for the target
+     * @param lower the highest value the position is proven to reach, or NO_LOWER
+     * @param upper the lowest value the position is proven not to exceed, or NO_UPPER
+     * @param work the number of positions searched
+     */
+    void store(long hash, int target, int proof, int disproof, int lower, int upper, long work) {
+	int bucket = bucket(hash);
+	int slot = bucket;
+	int least = Integer.MAX_VALUE;
+	int effort = 64 - Long.numberOfLeadingZeros(work);
+	for (int i = bucket; i < bucket + BUCKET_LONGS; i += ENTRY_LONGS) {
+	    long numbers = entries[i + 1];
+	    long bounds = entries[i + 2];
+	    if ((entries[i] ^ numbers ^ bounds) == hash && bounds != 0L) {
+		lower = Math.max(lower, getLower(bounds));
+		upper = Math.min(upper, getUpper(bounds));
+		effort = Math.max(effort, getWork(bounds));
+		slot = i;
+		break;
+	    }
+	    int used = bounds == 0L ? -1 : getWork(bounds);
+	    if (used < least) {
+		least = used;
+		slot = i;
+	    }
+	}
+	long numbers = (long) proof << 32 | disproof & 0xFFFFFFFFL;
+	long bounds = (target & 0xFFFFL) << TARGET_SHIFT
+		| (lower & 0xFFFFL) << LOWER_SHIFT
+		| (upper & 0xFFFFL) << UPPER_SHIFT
+		| (long) effort << WORK_SHIFT
+		| USED;
+	entries[slot] = hash ^ numbers ^ bounds;
+	entries[slot + 1] = numbers;
+	entries[slot + 2] = bounds;
+    }
+
+    /**
+     * Writes the bounds of the positions with a value proven, the numbers of the searches in progress are not kept
+     *
+     * @return the number of positions written
+     */
+    long write(DataOutputStream output) throws IOException {
+	long count = 0;
+	for (int i = 0; i < entries.length; i += ENTRY_LONGS) {
+	    long check = entries[i];
+	    long numbers = entries[i + 1];
+	    long bounds = entries[i + 2];
+	    long hash = check ^ numbers ^ bounds;
+	    //the searches go on while writing, an entry that changed between the reads or that is not in the bucket of its
+	    //hash was being written and is skipped
+	    boolean stable = entries[i] == check && entries[i + 1] == numbers && entries[i + 2] == bounds;
+	    if (stable && bounds != 0L && (getLower(bounds) != NO_LOWER || getUpper(bounds) != NO_UPPER)
+		    && bucket(hash) == i / BUCKET_LONGS * BUCKET_LONGS) {
+		output.writeLong(hash);
+		output.writeShort(getLower(bounds));
+		output.writeShort(getUpper(bounds));
+		output.writeByte(getWork(bounds));
+		count++;
+	    }
+	}
+	output.writeLong(0L);
+	output.writeShort(NO_LOWER);
+	output.writeShort(NO_UPPER);
+	output.writeByte(0);
+	return count;
+    }
+
+    /**
+     * Reads the bounds written by write, up to the entry that ends them
+     */
+    void read(DataInputStream input) throws IOException {
+	while (true) {
+	    long hash = input.readLong();
+	    int lower = input.readShort();
+	    int upper = input.readShort();
+	    int effort = input.readByte();
+	    if (lower == NO_LOWER && upper == NO_UPPER) {
+		return;
+	    }
+	    store(hash, NO_TARGET, 1, 1, lower, upper, effort == 0 ? 0 : 1L << (effort - 1));
+	}
+    }
+
+    /**
+     * Gets the proof number of an entry
+     */
+    static int getProof(long[] entry) {
+	return (int) (entry[0] >>> 32);
+    }
+
+    /**
+     * Gets the disproof number of an entry
+     */
+    static int getDisproof(long[] entry) {
+	return (int) entry[0];
+    }
+
+    /**
+     * Gets the target of the numbers of an entry
+     */
+    static int getTarget(long[] entry) {
+	return (short) (entry[1] >>> TARGET_SHIFT);
+    }
+
+    /**
+     * Gets the lower bound of the value of an entry
+     */
+    static int getLower(long[] entry) {
+	return getLower(entry[1]);
+    }
+
+    /**
+     * Gets the upper bound of the value of an entry
+     */
+    static int getUpper(long[] entry) {
+	return getUpper(entry[1]);
+    }
+
+    private static int getLower(long bounds) {
+	return (short) (bounds >>> LOWER_SHIFT);
+    }
+
+    private static int getUpper(long bounds) {
+	return (short) (bounds >>> UPPER_SHIFT);
+    }
+
+    private static int getWork(long bounds) {
+	return (int) (bounds >>> WORK_SHIFT) & 0x7F;
+    }
+
+    private int bucket(long hash) {
+	return ((int) (hash ^ (hash >>> 32)) & mask) * BUCKET_LONGS;
+    }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.solver;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahRules;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves every opening position of a variant: the positions reached within a number of moves from the initial board.
+ *
+ * The positions at the last ply are solved with KalahProofSearch, on a pool of threads that share one KalahProofTable, so
+ * what one thread proves about the positions they have in common saves work to the others. The values of the positions
+ * before them follow from the ones of their moves without searching.
+ *
+ * With a checkpoint file the solve survives restarts: the values of the positions solved and the bounds proven in the
+ * table are written to it periodically and when the solve ends, is interrupted or stopped, and a new solver with the same
+ * file goes on from them. From the command line, Ctrl-C or a kill stops the solve and writes the checkpoint before the
+ * process exits.
+ *
+ * Usage: KalahSolver file mode plies [threads] [tableMB] [checkpoint]
+ *
+ * where mode is STONES_3, STONES_4, STONES_6 or pits:seeds, and a line is written to file for every position: the pits
+ * played to reach it, the side to move, the houses, the value, the final margin and whether the side to move wins.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahSolver {
+
+    /**
+     * Memory of the table when none is given, in bytes
+     */
+    public static final long TABLE_SIZE = 1L << 30;
+    /**
+     * Time between checkpoints, in milliseconds
+     */
+    public static final long CHECKPOINT_INTERVAL = 10 * 60 * 1000;
+    /**
+     * First line of the results, the names of the columns
+     */
+    public static final String HEADER = "moves,side,houseA,houseB,value,margin,result";
+
+    static final int MAGIC = 0x4B414C50;
+    static final int VERSION = 1;
+
+    //the searches recurse once per ply of the longest line, well past the default stack with many stones
+    private static final long STACK_SIZE = 256L << 20;
+
+    private final KalahRules rules;
+    private final int plies;
+    private final int threads;
+    private final KalahProofTable table;
+    private final Path checkpoint;
+    private final List<KalahBoard> positions;
+    private final List<int[]> lines;
+    private final Map<Long, Integer> indexes;
+    private final AtomicIntegerArray values;
+    private final AtomicLong nodes;
+    private final int leaves;
+    private final List<KalahProofSearch> searches;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor, goes on from the checkpoint if it exists
+     *
+     * @param rules the rules of the positions
+     * @param plies the number of moves from the initial board of the positions to solve
+     * @param threads the number of threads to search with
+     * @param tableSize the memory of the table, in bytes
+     * @param checkpoint the file to keep the progress in, or null
+     * @throws IOException if the checkpoint can't be read or it is not of these rules and plies
+     */
+    public KalahSolver(KalahRules rules, int plies, int threads, long tableSize, Path checkpoint) throws IOException {
+	if (plies < 0) {
+	    throw new IllegalArgumentException("plies must be at least 0");
+	}
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	this.rules = rules;
+	this.plies = plies;
+	this.threads = threads;
+	this.table = new KalahProofTable(tableSize);
+	this.checkpoint = checkpoint;
+	this.positions = new ArrayList<>();
+	this.lines = new ArrayList<>();
+	this.indexes = new HashMap<>();
+	this.leaves = collect();
+	this.values = new AtomicIntegerArray(positions.size());
+	this.nodes = new AtomicLong();
+	this.searches = new ArrayList<>();
+	for (int i = 0; i < positions.size(); i++) {
+	    values.set(i, KalahProofSearch.UNKNOWN);
+	}
+	if (checkpoint != null && Files.exists(checkpoint)) {
+	    restore();
+	}
+    }
+
+    /**
+     * Solves the positions not solved yet
+     *
+     * @throws IOException if the checkpoint can't be written
+     * @throws InterruptedException if the thread is interrupted while solving, the progress is written to the checkpoint
+     */
+    public void solve() throws IOException, InterruptedException {
+	AtomicInteger next = new AtomicInteger(positions.size() - leaves);
+	ExecutorService executor = Executors.newFixedThreadPool(threads,
+		runnable -> new Thread(null, runnable, "kalah-solver", STACK_SIZE));
+	ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-solver-checkpoint");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	if (checkpoint != null) {
+	    checkpoints.scheduleWithFixedDelay(() -> {
+		try {
+		    checkpoint();
+		} catch (IOException ex) {
+		    System.err.println("Checkpoint failed: " + ex);
+		}
+	    }, CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	try {
+	    List<Future<?>> workers = new ArrayList<>();
+	    for (int i = 0; i < threads; i++) {
+		KalahProofSearch search = new KalahProofSearch(table);
+		synchronized (searches) {
+		    if (stopped) {
+			break;
+		    }
+		    searches.add(search);
+		}
+		workers.add(executor.submit(() -> {
+		    for (int index = next.getAndIncrement(); index < positions.size() && !stopped;
+			    index = next.getAndIncrement()) {
+			if (values.get(index) == KalahProofSearch.UNKNOWN) {
+			    long searched = search.getNodes();
+			    int value = search.solve(positions.get(index));
+			    nodes.addAndGet(search.getNodes() - searched);
+			    if (value == KalahProofSearch.UNKNOWN) {
+				return;
+			    }
+			    values.set(index, value);
+			}
+		    }
+		}));
+	    }
+	    for (Future<?> worker : workers) {
+		worker.get();
+	    }
+	} catch (ExecutionException ex) {
+	    throw new IllegalStateException(ex.getCause());
+	} finally {
+	    stop();
+	    executor.shutdown();
+	    //the checkpoint and the values derived must not race with a worker still writing
+	    boolean interrupted = false;
+	    while (!executor.isTerminated()) {
+		try {
+		    executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+		    interrupted = true;
+		}
+	    }
+	    checkpoints.shutdownNow();
+	    if (checkpoint != null) {
+		checkpoint();
+	    }
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+	for (int i = 0; i < positions.size() - leaves; i++) {
+	    derive(i);
+	}
+    }
+
+    /**
+     * Stops solving, solve() returns as soon as the searches in progress stop, after writing the checkpoint. A stopped
+     * solver does not solve again, it can be called from any thread, also before solve()
+     */
+    public void stop() {
+	synchronized (searches) {
+	    stopped = true;
+	    for (KalahProofSearch search : searches) {
+		search.stop();
+	    }
+	}
+    }
+
+    /**
+     * Writes the values solved and the bounds proven to the checkpoint file, replacing it at once
+     *
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void checkpoint() throws IOException {
+	Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+	try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+	    output.writeInt(MAGIC);
+	    output.writeInt(VERSION);
+	    output.writeInt(rules.getPits());
+	    output.writeInt(rules.getSeeds());
+	    output.writeInt(rules.isEmptyCapture() ? 1 : 0);
+	    output.writeInt(plies);
+	    output.writeInt(positions.size());
+	    for (int i = 0; i < positions.size(); i++) {
+		output.writeInt(values.get(i));
+	    }
+	    table.write(output);
+	}
+	Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the number of opening positions
+     *
+     * @return the number of different positions within the plies, the initial one included
+     */
+    public int getPositions() {
+	return positions.size();
+    }
+
+    /**
+     * Gets an opening position
+     *
+     * @param index the index of the position, the ones with fewer moves first
+     * @return a copy of the position
+     */
+    public KalahBoard getPosition(int index) {
+	return new KalahBoard(positions.get(index));
+    }
+
+    /**
+     * Gets the pits played from the initial board to reach an opening position, the first line found
+     *
+     * @param index the index of the position
+     * @return the index of the pit of each move, in order
+     */
+    public int[] getLine(int index) {
+	return lines.get(index).clone();
+    }
+
+    /**
+     * Gets the value of an opening position
+     *
+     * @param index the index of the position
+     * @return the stones the side to move will add to its house minus the ones the opponent will add with best play, or
+     * KalahProofSearch.UNKNOWN if it is not solved yet
+     */
+    public int getValue(int index) {
+	return values.get(index);
+    }
+
+    /**
+     * Gets the final house difference of an opening position with best play
+     *
+     * @param index the index of the position
+     * @return the difference seen from the side to move, positive if it wins, or KalahProofSearch.UNKNOWN if it is not
+     * solved yet
+     */
+    public int getMargin(int index) {
+	int value = values.get(index);
+	if (value == KalahProofSearch.UNKNOWN) {
+	    return value;
+	}
+	KalahBoard board = positions.get(index);
+	int side = board.getSideToMove();
+	return board.getHouse(side) - board.getHouse(1 - side) + value;
+    }
+
+    /**
+     * Gets the number of positions searched by this solver
+     *
+     * @return the number of positions, the ones searched before a restart not included
+     */
+    public long getNodes() {
+	return nodes.get();
+    }
+
+    /**
+     * Writes a line for every opening position, after HEADER
+     *
+     * @param output where to write the lines
+     * @throws IOException if the lines can't be written
+     */
+    public void write(Appendable output) throws IOException {
+	output.append(HEADER).append('\n');
+	for (int i = 0; i < positions.size(); i++) {
+	    KalahBoard board = positions.get(i);
+	    StringBuilder line = new StringBuilder();
+	    for (int pit : lines.get(i)) {
+		line.append(line.length() == 0 ? "" : "-").append(pit);
+	    }
+	    int margin = getMargin(i);
+	    String result = margin == KalahProofSearch.UNKNOWN ? "UNKNOWN"
+		    : margin > 0 ? "WIN" : margin == 0 ? "DRAW" : "LOSS";
+	    output.append(String.format("%s,%s,%d,%d,%s,%s,%s\n", line,
+		    board.getSideToMove() == KalahBoard.SIDE_A ? "A" : "B", board.getHouse(KalahBoard.SIDE_A),
+		    board.getHouse(KalahBoard.SIDE_B), valueText(values.get(i)), valueText(margin), result));
+	}
+    }
+
+    /**
+     * Collects the positions breadth first, so each one is kept with its shortest line
+     *
+     * @return the number of positions at the last ply, they are the last ones
+     */
+    private int collect() {
+	add(new KalahBoard(rules), new int[0]);
+	int first = 0;
+	for (int ply = 0; ply < plies; ply++) {
+	    int last = positions.size();
+	    for (int index = first; index < last; index++) {
+		KalahBoard board = new KalahBoard(positions.get(index));
+		int legal = board.legalMoves();
+		for (int i = 0; i < board.getPits(); i++) {
+		    if ((legal & (1 << i)) != 0) {
+			long move = board.play(i);
+			int[] line = lines.get(index);
+			int[] longer = Arrays.copyOf(line, line.length + 1);
+			longer[line.length] = i;
+			add(board, longer);
+			board.undo(move);
+		    }
+		}
+	    }
+	    first = last;
+	}
+	return positions.size() - first;
+    }
+
+    private void add(KalahBoard board, int[] line) {
+	if (!indexes.containsKey(board.getHash())) {
+	    indexes.put(board.getHash(), positions.size());
+	    positions.add(new KalahBoard(board));
+	    lines.add(line);
+	}
+    }
+
+    /**
+     * Gets the value of a position before the last ply from the values of its moves
+     */
+    private int derive(int index) {
+	//the positions at the last ply are only solved by searching, they are unknown if the solve was stopped
+	if (values.get(index) != KalahProofSearch.UNKNOWN || index >= positions.size() - leaves) {
+	    return values.get(index);
+	}
+	KalahBoard position = new KalahBoard(positions.get(index));
+	int side = position.getSideToMove();
+	int legal = position.legalMoves();
+	int best = legal == 0 ? 0 : Integer.MIN_VALUE;
+	for (int i = 0; i < position.getPits(); i++) {
+	    if ((legal & (1 << i)) != 0) {
+		int house = position.getHouse(side);
+		long move = position.play(i);
+		int gain = position.getHouse(side) - house;
+		int child = indexes.get(position.getHash());
+		int value = derive(child);
+		if (value == KalahProofSearch.UNKNOWN) {
+		    return value;
+		}
+		best = Math.max(best, position.getSideToMove() == side ? gain + value : gain - value);
+		position.undo(move);
+	    }
+	}
+	values.set(index, best);
+	return best;
+    }
+
+    private void restore() throws IOException {
+	try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+	    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+		throw new IOException("Not a solver checkpoint: " + checkpoint);
+	    }
+	    if (input.readInt() != rules.getPits() || input.readInt() != rules.getSeeds()
+		    || (input.readInt() != 0) != rules.isEmptyCapture() || input.readInt() != plies
+		    || input.readInt() != positions.size()) {
+		throw new IOException("The checkpoint is of other rules or plies: " + checkpoint);
+	    }
+	    for (int i = 0; i < positions.size(); i++) {
+		values.set(i, input.readInt());
+	    }
+	    table.read(input);
+	}
+    }
+
+    private static String valueText(int value) {
+	return value == KalahProofSearch.UNKNOWN ? "" : Integer.toString(value);
+    }
+
+    /**
+     * @param args the file for the results, the mode, the plies, and optionally the threads, the memory of the table in
+     * MB and the checkpoint file
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if the thread is interrupted while solving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length < 3 || args.length > 6) {
+	    System.err.println("Usage: KalahSolver file STONES_3|STONES_4|STONES_6|pits:seeds plies [threads] [tableMB] [checkpoint]");
+	    System.exit(1);
+	}
+	KalahRules rules;
+	if (args[1].contains(":")) {
+	    String[] geometry = args[1].split(":");
+	    rules = new KalahRules(Integer.parseInt(geometry[0]), Integer.parseInt(geometry[1]), true);
+	} else {
+	    rules = KalahRules.of(KalahMode.valueOf(args[1]));
+	}
+	int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+	long tableSize = args.length > 4 ? Long.parseLong(args[4]) << 20 : TABLE_SIZE;
+	Path checkpoint = args.length > 5 ? Paths.get(args[5]) : null;
+	long start = System.currentTimeMillis();
+	KalahSolver solver = new KalahSolver(rules, Integer.parseInt(args[2]), threads, tableSize, checkpoint);
+	//on Ctrl-C or kill, stop and wait for the checkpoint and the results of the positions solved
+	Thread main = Thread.currentThread();
+	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+	    solver.stop();
+	    try {
+		main.join();
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+	    }
+	}, "kalah-solver-shutdown"));
+	solver.solve();
+	try (Writer output = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+	    solver.write(output);
+	}
+	System.out.println(String.format("%d positions, %d nodes in %d ms", solver.getPositions(), solver.getNodes(),
+		System.currentTimeMillis() - start));
+    }
+
+}
@@ -0,0 +1,522 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahCodec;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.engine.KalahEngine;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays files of recorded games and writes a line for each one, with its final score and optionally the evaluations of
+ * an engine and the blunders of every move.
+ *
+ * The games are read as text, a line per game with the mode and the pits played, as in "STONES_4 2 5 0 3", every digit
+ * is a pit and lines starting with # are skipped; or as the binary records of KalahCodec, one after the other, the ones
+ * of games that finish when decided replayed with that rule. Input and output go through channels with buffers of a
+ * fixed size, the games are replayed in batches by a pool of threads, and the batches are written in the order they were
+ * read. Only a few batches are in flight at any time, so the memory used does not depend on the size of the files.
+ *
+ * The result of a game is A or B for the winner, DRAW, UNFINISHED if the record stops before the end, ILLEGAL if a move
+ * can't be played, counting the moves before it, or INVALID if the line or the mode of the record can't be read. With a
+ * search depth, the evaluations are the expected house difference for player A after every move, and the blunders are
+ * the moves, counted from 1, that lose at least the given number of stones against the best move.
+ *
+ * Usage: KalahAnnotator input output [-binary] [-threads threads] [-depth depth] [-blunder stones]
+ *
+ * where - reads the standard input or writes the standard output.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahAnnotator {
+
+    /**
+     * First line of the output, the names of the columns
+     */
+    public static final String HEADER = "game,mode,moves,houseA,houseB,result";
+    /**
+     * First line of the output with evaluations
+     */
+    public static final String ANNOTATED_HEADER = HEADER + ",evaluations,blunders";
+    /**
+     * Stones lost against the best move that make a blunder, by default
+     */
+    public static final int BLUNDER = 4;
+    /**
+     * Size of the input and output buffers, and maximum length of a line, in bytes
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * Games replayed together by a thread
+     */
+    public static final int BATCH_GAMES = 1024;
+
+    private static final KalahMode[] MODES = KalahMode.values();
+    private static final byte INVALID = -1;
+    private static final long MOVE_TIME = 24L * 60 * 60 * 1000;
+
+    private final int threads;
+    private final int depth;
+    private final int blunder;
+    private final boolean binary;
+    private final ThreadLocal<KalahEngine> engines;
+
+    /**
+     * Constructor
+     *
+     * @param threads the number of threads to replay with
+     * @param depth the depth to search every position, in plies, up to KalahEngine.DEPTH_LIMIT, or 0 for no evaluations
+     * @param blunder the stones lost against the best move that make a blunder
+     * @param binary true to read KalahCodec records, false to read lines of text
+     */
+    public KalahAnnotator(int threads, int depth, int blunder, boolean binary) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	if (depth < 0 || depth > KalahEngine.DEPTH_LIMIT) {
+	    throw new IllegalArgumentException("depth must be between 0 and " + KalahEngine.DEPTH_LIMIT);
+	}
+	this.threads = threads;
+	this.depth = depth;
+	this.blunder = blunder;
+	this.binary = binary;
+	this.engines = ThreadLocal.withInitial(() -> new KalahEngine(MOVE_TIME, depth));
+    }
+
+    /**
+     * Replays all the games of the input
+     *
+     * @param input the recorded games
+     * @param output where to write the header and a line per game
+     * @return the number of games
+     * @throws IOException if the input can't be read, a record is not valid or the output can't be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the threads
+     */
+    public long annotate(ReadableByteChannel input, WritableByteChannel output) throws IOException, InterruptedException {
+	ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-annotator");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	ArrayDeque<Future<Text>> pending = new ArrayDeque<>();
+	ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	Text header = new Text();
+	header.append(depth > 0 ? ANNOTATED_HEADER : HEADER).append('\n');
+	write(header, output);
+	long games = 0;
+	try {
+	    Batch batch = new Batch(games);
+	    int[] moves = binary ? new int[KalahCodec.MAX_RECORD_MOVES] : null;
+	    boolean end = false;
+	    while (!end) {
+		end = input.read(buffer) < 0;
+		buffer.flip();
+		while (binary ? readRecord(buffer, batch, moves) : readLine(buffer, batch, end)) {
+		    if (batch.count == BATCH_GAMES || batch.length >= BUFFER_SIZE) {
+			games += batch.count;
+			submit(batch, executor, pending, output);
+			batch = new Batch(games);
+		    }
+		}
+		if (end && buffer.hasRemaining()) {
+		    throw new IOException("Truncated record at the end of the input");
+		}
+		if (!end && buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+		    throw new IOException("Game longer than " + BUFFER_SIZE + " bytes");
+		}
+		buffer.compact();
+	    }
+	    games += batch.count;
+	    submit(batch, executor, pending, output);
+	    while (!pending.isEmpty()) {
+		write(pending.poll().get(), output);
+	    }
+	} catch (ExecutionException ex) {
+	    throw new IllegalStateException(ex.getCause());
+	} finally {
+	    executor.shutdownNow();
+	}
+	return games;
+    }
+
+    /**
+     * Queues a batch to replay, writing the oldest ones first if there are too many in flight
+     */
+    private void submit(Batch batch, ExecutorService executor, ArrayDeque<Future<Text>> pending,
+	    WritableByteChannel output) throws IOException, InterruptedException, ExecutionException {
+	if (batch.count == 0) {
+	    return;
+	}
+	while (pending.size() >= 2 * threads) {
+	    write(pending.poll().get(), output);
+	}
+	pending.add(executor.submit(() -> replay(batch)));
+    }
+
+    /**
+     * Reads a line of text, skipping the empty ones and the comments
+     *
+     * @return true if a game was added to the batch, false if the buffer has no complete line left
+     */
+    private static boolean readLine(ByteBuffer buffer, Batch batch, boolean end) {
+	while (buffer.hasRemaining()) {
+	    int start = buffer.position();
+	    int newline = start;
+	    while (newline < buffer.limit() && buffer.get(newline) != '\n') {
+		newline++;
+	    }
+	    if (newline == buffer.limit() && !end) {
+		return false;
+	    }
+	    buffer.position(Math.min(newline + 1, buffer.limit()));
+	    int first = start;
+	    while (first < newline && isSeparator(buffer.get(first))) {
+		first++;
+	    }
+	    if (first == newline || buffer.get(first) == '#') {
+		continue;
+	    }
+	    int word = first;
+	    while (word < newline && !isSeparator(buffer.get(word))) {
+		word++;
+	    }
+	    byte mode = INVALID;
+	    for (KalahMode candidate : MODES) {
+		if (matches(buffer, first, word, candidate.name())) {
+		    mode = (byte) candidate.ordinal();
+		}
+	    }
+	    batch.start(mode);
+	    for (int i = word; i < newline && mode != INVALID; i++) {
+		byte c = buffer.get(i);
+		if (c >= '0' && c <= '9') {
+		    batch.add(c - '0');
+		} else if (!isSeparator(c)) {
+		    batch.invalidate();
+		    break;
+		}
+	    }
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Reads a record of KalahCodec
+     *
+     * @return true if a game was added to the batch, false if the buffer has no complete record left
+     */
+    private static boolean readRecord(ByteBuffer buffer, Batch batch, int[] moves) {
+	if (buffer.remaining() < 3) {
+	    return false;
+	}
+	if (buffer.remaining() < KalahCodec.RECORD_HEADER_BYTES
+		|| buffer.remaining() < KalahCodec.recordBytes(KalahCodec.getRecordMoves(buffer))) {
+	    return false;
+	}
+	KalahMode mode = KalahCodec.getRecordMode(buffer);
+	boolean decided = KalahCodec.isRecordDecided(buffer);
+	int count = KalahCodec.readRecord(buffer, moves);
+	batch.start(mode == null ? INVALID : (byte) mode.ordinal());
+	batch.decided[batch.count - 1] = decided;
+	for (int i = 0; i < count && mode != null; i++) {
+	    batch.add(moves[i]);
+	}
+	return true;
+    }
+
+    /**
+     * Replays the games of a batch
+     *
+     * @return the lines of the games
+     */
+    private Text replay(Batch batch) {
+	Text text = new Text();
+	KalahBoard board = new KalahBoard(KalahMode.STONES_3);
+	KalahBoard[] initial = new KalahBoard[MODES.length];
+	for (int i = 0; i < MODES.length; i++) {
+	    initial[i] = new KalahBoard(MODES[i]);
+	}
+	int[] evaluations = new int[0];
+	for (int game = 0; game < batch.count; game++) {
+	    int mode = batch.modes[game];
+	    int from = batch.offsets[game];
+	    int to = batch.offsets[game + 1];
+	    text.append(batch.first + game).append(',');
+	    if (mode == INVALID) {
+		text.append(",0,,,INVALID");
+		text.append(depth > 0 ? ",," : "").append('\n');
+		continue;
+	    }
+	    text.append(MODES[mode].name()).append(',');
+	    board.copyFrom(initial[mode]);
+	    int played = 0;
+	    boolean legal = true;
+	    boolean decided = batch.decided[game];
+	    for (int i = from; i < to && legal; i++) {
+		legal = play(board, batch.moves[i], decided);
+		if (legal) {
+		    played++;
+		}
+	    }
+	    int houseA = board.getHouse(KalahBoard.SIDE_A);
+	    int houseB = board.getHouse(KalahBoard.SIDE_B);
+	    text.append(played).append(',').append(houseA).append(',').append(houseB).append(',');
+	    if (!legal) {
+		text.append("ILLEGAL");
+	    } else if (!board.isFinished()) {
+		text.append("UNFINISHED");
+	    } else {
+		text.append(houseA > houseB ? "A" : houseB > houseA ? "B" : "DRAW");
+	    }
+	    if (depth > 0) {
+		if (evaluations.length <= played) {
+		    evaluations = new int[2 * played + 1];
+		}
+		board.copyFrom(initial[mode]);
+		evaluations[0] = evaluate(board);
+		for (int i = 0; i < played; i++) {
+		    play(board, batch.moves[from + i], decided);
+		    evaluations[i + 1] = evaluate(board);
+		}
+		text.append(',');
+		for (int i = 1; i <= played; i++) {
+		    text.append(i == 1 ? "" : " ").append(evaluations[i]);
+		}
+		text.append(',');
+		board.copyFrom(initial[mode]);
+		boolean first = true;
+		for (int i = 0; i < played; i++) {
+		    //the loss of a move is the fall of the evaluation for the side that played it
+		    int sign = board.getSideToMove() == KalahBoard.SIDE_A ? 1 : -1;
+		    if (sign * (evaluations[i] - evaluations[i + 1]) >= blunder) {
+			text.append(first ? "" : " ").append(i + 1);
+			first = false;
+		    }
+		    play(board, batch.moves[from + i], decided);
+		}
+	    }
+	    text.append('\n');
+	}
+	return text;
+    }
+
+    /**
+     * Plays a move as KalahGame does, moving the stones left to the houses when the game finishes when decided
+     *
+     * @return true if the move was legal
+     */
+    private static boolean play(KalahBoard board, int pit, boolean decided) {
+	if (board.isFinished() || board.play(pit) == KalahBoard.ILEGAL_MOVE) {
+	    return false;
+	}
+	if (decided && (board.isFinished() || board.isDecided())) {
+	    board.sweep();
+	}
+	return true;
+    }
+
+    /**
+     * Searches a position
+     *
+     * @return the expected house difference for player A
+     */
+    private int evaluate(KalahBoard board) {
+	int sign = board.getSideToMove() == KalahBoard.SIDE_A ? 1 : -1;
+	if (board.isFinished()) {
+	    return board.getHouse(KalahBoard.SIDE_A) - board.getHouse(KalahBoard.SIDE_B);
+	}
+	KalahEngine engine = engines.get();
+	engine.bestMove(board);
+	return sign * engine.getScore();
+    }
+
+    private static void write(Text text, WritableByteChannel output) throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(text.bytes, 0, text.length);
+	while (buffer.hasRemaining()) {
+	    output.write(buffer);
+	}
+    }
+
+    private static boolean isSeparator(byte c) {
+	return c == ' ' || c == '\t' || c == ',' || c == '-' || c == '\r' || c == '\n';
+    }
+
+    private static boolean matches(ByteBuffer buffer, int from, int to, String word) {
+	if (to - from != word.length()) {
+	    return false;
+	}
+	for (int i = 0; i < word.length(); i++) {
+	    if (buffer.get(from + i) != word.charAt(i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Games read and not replayed yet, the pits of all of them in one array
+     */
+    private static final class Batch {
+
+	private final long first;
+	private byte[] modes = new byte[BATCH_GAMES];
+	private boolean[] decided = new boolean[BATCH_GAMES];
+	private int[] offsets = new int[BATCH_GAMES + 1];
+	private byte[] moves = new byte[1024];
+	private int count;
+	private int length;
+
+	Batch(long first) {
+	    this.first = first;
+	}
+
+	void start(byte mode) {
+	    if (count + 1 == modes.length) {
+		modes = Arrays.copyOf(modes, 2 * modes.length);
+		decided = Arrays.copyOf(decided, 2 * decided.length);
+		offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+	    }
+	    modes[count++] = mode;
+	    offsets[count] = length;
+	}
+
+	void add(int pit) {
+	    if (length == moves.length) {
+		moves = Arrays.copyOf(moves, 2 * length);
+	    }
+	    moves[length++] = (byte) pit;
+	    offsets[count] = length;
+	}
+
+	void invalidate() {
+	    modes[count - 1] = INVALID;
+	}
+
+    }
+
+    /**
+     * Growing array of ASCII bytes, to write the lines without formatting strings
+     */
+    private static final class Text {
+
+	private byte[] bytes = new byte[8192];
+	private int length;
+
+	Text append(char c) {
+	    if (length == bytes.length) {
+		bytes = Arrays.copyOf(bytes, 2 * length);
+	    }
+	    bytes[length++] = (byte) c;
+	    return this;
+	}
+
+	Text append(String ascii) {
+	    for (int i = 0; i < ascii.length(); i++) {
+		append(ascii.charAt(i));
+	    }
+	    return this;
+	}
+
+	Text append(long value) {
+	    if (value < 0) {
+		append('-');
+		value = -value;
+	    }
+	    long divisor = 1;
+	    while (divisor <= value / 10) {
+		divisor *= 10;
+	    }
+	    for (; divisor > 0; divisor /= 10) {
+		append((char) ('0' + value / divisor % 10));
+	    }
+	    return this;
+	}
+
+    }
+
+    /**
+     * @param args the input and output files, and the options
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if the thread is interrupted while replaying
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length < 2) {
+	    System.err.println("Usage: KalahAnnotator input output [-binary] [-threads threads] [-depth depth] [-blunder stones]");
+	    System.err.println("where - reads the standard input or writes the standard output");
+	    System.exit(1);
+	}
+	boolean binary = false;
+	int threads = Runtime.getRuntime().availableProcessors();
+	int depth = 0;
+	int blunder = BLUNDER;
+	for (int i = 2; i < args.length; i++) {
+	    switch (args[i]) {
+		case "-binary":
+		    binary = true;
+		    break;
+		case "-threads":
+		    threads = Integer.parseInt(args[++i]);
+		    break;
+		case "-depth":
+		    depth = Integer.parseInt(args[++i]);
+		    break;
+		case "-blunder":
+		    blunder = Integer.parseInt(args[++i]);
+		    break;
+		default:
+		    throw new IllegalArgumentException("Unknown option: " + args[i]);
+	    }
+	}
+	if (depth < 0 || depth > KalahEngine.DEPTH_LIMIT) {
+	    System.err.println("depth must be between 0 and " + KalahEngine.DEPTH_LIMIT);
+	    System.exit(1);
+	}
+	long start = System.currentTimeMillis();
+	long games;
+	try (ReadableByteChannel input = args[0].equals("-") ? Channels.newChannel(System.in)
+		: FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ);
+		WritableByteChannel output = args[1].equals("-") ? Channels.newChannel(System.out)
+			: FileChannel.open(Paths.get(args[1]), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+	    games = new KalahAnnotator(threads, depth, blunder, binary).annotate(input, output);
+	}
+	System.err.println(String.format("%d games in %d ms", games, System.currentTimeMillis() - start));
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts the positions reached after every possible sequence of moves from the initial board, to measure the speed of the
+ * rules and to check them.
+ *
+ * For each depth it prints the positions reached after exactly that many moves, split by the kind of the last move, the
+ * games finished on the way and the positions per second. With -verify the counts are also computed with
+ * KalahReferenceRules, the original stone by stone implementation, and the program fails if they differ.
+ *
+ * Other rules are given as pits:seeds, add -noemptycapture for the variant where a stone landing in an empty pit only
+ * captures if the opposite pit has stones. Large pits exercise the sowing of whole laps, for example 4:20 or 2:40.
+ *
+ * Usage: KalahPerft depth [STONES_3|STONES_4|STONES_6|pits:seeds] [-noemptycapture] [-verify]
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahPerft {
+
+    /**
+     * Index of the finished games in the counts
+     */
+    public static final int FINISHED = KalahMove.values().length;
+
+    private KalahPerft() {
+    }
+
+    /**
+     * Counts the positions reached from a board
+     *
+     * @param board the initial board, it is left as it was
+     * @param depth the number of moves to play
+     * @param counts where to add the positions, indexed by the ordinal of the last KalahMove, and the finished games at
+     * FINISHED
+     */
+    public static void perft(KalahBoard board, int depth, long[] counts) {
+	int legal = board.legalMoves();
+	if (legal == 0) {
+	    counts[FINISHED]++;
+	    return;
+	}
+	for (int i = 0; i < board.getPits(); i++) {
+	    if ((legal & (1 << i)) == 0) {
+		continue;
+	    }
+	    long move = board.play(i);
+	    if (depth == 1) {
+		counts[KalahBoard.getMove(move).ordinal()]++;
+		if (board.isFinished()) {
+		    counts[FINISHED]++;
+		}
+	    } else {
+		perft(board, depth - 1, counts);
+	    }
+	    board.undo(move);
+	}
+    }
+
+    /**
+     * Counts the positions reached from a position of the reference rules
+     */
+    static void perft(KalahReferenceRules rules, int pits, int depth, long[] counts) {
+	if (rules.isFinished()) {
+	    counts[FINISHED]++;
+	    return;
+	}
+	for (int i = 0; i < pits; i++) {
+	    if (!rules.isLegal(i)) {
+		continue;
+	    }
+	    KalahReferenceRules child = new KalahReferenceRules(rules);
+	    KalahMove move = child.move(i);
+	    if (depth == 1) {
+		counts[move.ordinal()]++;
+		if (child.isFinished()) {
+		    counts[FINISHED]++;
+		}
+	    } else {
+		perft(child, pits, depth - 1, counts);
+	    }
+	}
+    }
+
+    /**
+     * @param args the depth, optionally the mode or the pits and seeds, -noemptycapture and -verify
+     */
+    public static void main(String[] args) {
+	if (args.length < 1) {
+	    System.err.println("Usage: KalahPerft depth [STONES_3|STONES_4|STONES_6|pits:seeds] [-noemptycapture] [-verify]");
+	    System.exit(1);
+	}
+	int depth = Integer.parseInt(args[0]);
+	String variant = null;
+	boolean emptyCapture = true;
+	boolean verify = false;
+	for (int i = 1; i < args.length; i++) {
+	    if (args[i].equals("-verify")) {
+		verify = true;
+	    } else if (args[i].equals("-noemptycapture")) {
+		emptyCapture = false;
+	    } else {
+		variant = args[i];
+	    }
+	}
+	List<KalahRules> variants = new ArrayList<>();
+	if (variant == null) {
+	    for (KalahMode mode : KalahMode.values()) {
+		variants.add(new KalahRules(KalahBoard.PITS, mode.stones(), emptyCapture));
+	    }
+	} else if (variant.contains(":")) {
+	    String[] geometry = variant.split(":");
+	    variants.add(new KalahRules(Integer.parseInt(geometry[0]), Integer.parseInt(geometry[1]), emptyCapture));
+	} else {
+	    variants.add(new KalahRules(KalahBoard.PITS, KalahMode.valueOf(variant).stones(), emptyCapture));
+	}
+	boolean failed = false;
+	for (KalahRules rules : variants) {
+	    System.out.println(rules.getMode() != null ? rules.getMode() : rules);
+	    System.out.println(String.format("%5s %15s %15s %15s %15s %15s %12s", "depth", "positions", "continue",
+		    "steal", "playagain", "finished", "pos/s"));
+	    for (int d = 1; d <= depth; d++) {
+		long[] counts = new long[FINISHED + 1];
+		KalahBoard board = new KalahBoard(rules);
+		long start = System.nanoTime();
+		perft(board, d, counts);
+		long elapsed = Math.max(System.nanoTime() - start, 1);
+		long positions = counts[KalahMove.CONTINUE.ordinal()] + counts[KalahMove.STEAL.ordinal()]
+			+ counts[KalahMove.PLAYAGAIN.ordinal()];
+		System.out.println(String.format("%5d %15d %15d %15d %15d %15d %12d", d, positions,
+			counts[KalahMove.CONTINUE.ordinal()], counts[KalahMove.STEAL.ordinal()],
+			counts[KalahMove.PLAYAGAIN.ordinal()], counts[FINISHED], positions * 1000000000L / elapsed));
+		if (verify) {
+		    long[] expected = new long[FINISHED + 1];
+		    perft(new KalahReferenceRules(rules), rules.getPits(), d, expected);
+		    if (!Arrays.equals(counts, expected)) {
+			System.out.println(String.format("%5s %15s %15d %15d %15d %15d MISMATCH", "ref", "",
+				expected[KalahMove.CONTINUE.ordinal()], expected[KalahMove.STEAL.ordinal()],
+				expected[KalahMove.PLAYAGAIN.ordinal()], expected[FINISHED]));
+			failed = true;
+		    }
+		}
+	    }
+	}
+	if (failed) {
+	    System.exit(2);
+	}
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahRules;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Reference implementation of the rules, one object per stone, sown one by one.
+ *
+ * It is the original move processing of KalahGame kept as it was, slow but easy to check by hand, with the number of
+ * pits and the capture rule taken from a KalahRules. It is used to verify that faster implementations play exactly the
+ * same moves.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+@SuppressWarnings("deprecation")
+class KalahReferenceRules {
+
+    private final ArrayList<ArrayList<ArrayList<com.zenilt.kalah.KalahStone>>> pits;
+    private final ArrayList<ArrayList<com.zenilt.kalah.KalahStone>> houses;
+    private final int size;
+    private final boolean emptyCapture;
+    private int player;
+
+    /**
+     * Constructor uses game mode to add the initial stones, player A moves first
+     *
+     * @param mode the mode determines how many stones put initialy in each pit
+     */
+    KalahReferenceRules(KalahMode mode) {
+	this(KalahRules.of(mode));
+    }
+
+    /**
+     * Constructor with the initial stones of some rules, player A moves first
+     *
+     * @param rules the rules that determine the pits, how many stones put initialy in each pit and the captures
+     */
+    KalahReferenceRules(KalahRules rules) {
+	this.size = rules.getPits();
+	this.emptyCapture = rules.isEmptyCapture();
+	this.pits = new ArrayList<>();
+	this.houses = new ArrayList<>();
+	for (int p = 0; p < 2; p++) {
+	    ArrayList<ArrayList<com.zenilt.kalah.KalahStone>> side = new ArrayList<>();
+	    for (int i = 0; i < size; i++) {
+		ArrayList<com.zenilt.kalah.KalahStone> pit = new ArrayList<>();
+		for (int j = 0; j < rules.getSeeds(); j++) {
+		    pit.add(new com.zenilt.kalah.KalahStone());
+		}
+		side.add(pit);
+	    }
+	    pits.add(side);
+	    houses.add(new ArrayList<>());
+	}
+	this.player = 0;
+    }
+
+    /**
+     * Copy constructor, the stones are copied too
+     *
+     * @param rules the position to copy
+     */
+    KalahReferenceRules(KalahReferenceRules rules) {
+	this.size = rules.size;
+	this.emptyCapture = rules.emptyCapture;
+	this.pits = new ArrayList<>();
+	this.houses = new ArrayList<>();
+	for (int p = 0; p < 2; p++) {
+	    ArrayList<ArrayList<com.zenilt.kalah.KalahStone>> side = new ArrayList<>();
+	    for (ArrayList<com.zenilt.kalah.KalahStone> pit : rules.pits.get(p)) {
+		side.add(new ArrayList<>(pit));
+	    }
+	    pits.add(side);
+	    houses.add(new ArrayList<>(rules.houses.get(p)));
+	}
+	this.player = rules.player;
+    }
+
+    /**
+     * Check if any of the players has no remaining stones in its pits
+     *
+     * @return true if the game is over
+     */
+    boolean isFinished() {
+	return !(hasStones(0) && hasStones(1));
+    }
+
+    /**
+     * Check if a pit of the player on turn has stones
+     *
+     * @param pitIndex the index of the pit
+     * @return true if it can be played
+     */
+    boolean isLegal(int pitIndex) {
+	return !pits.get(player).get(pitIndex).isEmpty();
+    }
+
+    /**
+     * Plays a pit of the player on turn, the turn is handed over unless the last stone ended in the house
+     *
+     * @param pitIndex the index of the pit
+     * @return the kind of move
+     */
+    KalahMove move(int pitIndex) {
+	KalahMove move = processMove(pitIndex);
+	if (move == KalahMove.CONTINUE || move == KalahMove.STEAL) {
+	    player = 1 - player;
+	}
+	return move;
+    }
+
+    private KalahMove processMove(int pitIndex) {
+	if (pitIndex < 0 || pitIndex >= size || !isLegal(pitIndex)) {
+	    return KalahMove.ILEGAL;
+	}
+	int currentPlayer = player;
+	ArrayList<com.zenilt.kalah.KalahStone> pit = pits.get(currentPlayer).get(pitIndex);
+	LinkedList<com.zenilt.kalah.KalahStone> stones = new LinkedList<>(pit);
+	pit.clear();
+	KalahMove move = KalahMove.CONTINUE;
+	boolean isOponentArea = false;
+	while (!stones.isEmpty()) {
+	    com.zenilt.kalah.KalahStone stone = stones.remove();
+	    pitIndex++;
+	    move = KalahMove.CONTINUE;
+	    if (pitIndex < size) {
+		pit = pits.get(currentPlayer).get(pitIndex);
+		if (!isOponentArea && pit.isEmpty()) {
+		    move = KalahMove.STEAL;
+		}
+		pit.add(stone);
+	    } else {
+		if (!isOponentArea) {
+		    houses.get(currentPlayer).add(stone);
+		    move = KalahMove.PLAYAGAIN;
+		} else {
+		    //add the stone back to play at opponet's area in next iteration
+		    stones.add(stone);
+		}
+		currentPlayer = 1 - currentPlayer;
+		isOponentArea = !isOponentArea;
+		pitIndex = -1;
+	    }
+	}
+	if (move == KalahMove.STEAL) {
+	    if (emptyCapture || !pits.get(1 - player).get((size - 1) - pitIndex).isEmpty()) {
+		steal(pitIndex);
+	    } else {
+		move = KalahMove.CONTINUE;
+	    }
+	}
+	return move;
+    }
+
+    private void steal(int pitIndex) {
+	ArrayList<com.zenilt.kalah.KalahStone> house = houses.get(player);
+	ArrayList<com.zenilt.kalah.KalahStone> pit = pits.get(player).get(pitIndex);
+	house.addAll(pit);
+	pit.clear();
+	ArrayList<com.zenilt.kalah.KalahStone> opposite = pits.get(1 - player).get((size - 1) - pitIndex);
+	house.addAll(opposite);
+	opposite.clear();
+    }
+
+    private boolean hasStones(int side) {
+	for (ArrayList<com.zenilt.kalah.KalahStone> pit : pits.get(side)) {
+	    if (!pit.isEmpty()) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahGame;
+import com.zenilt.kalah.KalahMode;
+import com.zenilt.kalah.KalahMove;
+import com.zenilt.kalah.KalahStatus;
+import com.zenilt.kalah.exception.KalahException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToIntFunction;
+
+/**
+ * Plays many games between bot configurations on a pool of threads, to compare them.
+ *
+ * Every pairing is played in each of the modes for a number of rounds. A round is two games from the same opening, a
+ * few random moves from the initial board, with each player taking each seat once, so neither the seat nor the opening
+ * favors anyone. The games are independent tasks, so the tournament runs as fast as the threads can play, and every game
+ * gets its opening and the seeds of its bots from the seed of the tournament and its number: the same seed plays the
+ * same games with any number of threads.
+ *
+ * The result of each game is written to a CSV log as soon as it and all the games before it have finished, in the order
+ * of the games, so the log of a seed is the same with any number of threads. The log is written by the calling thread
+ * only.
+ *
+ * Usage: KalahTournament file rounds threads seed [-gauntlet] [-opening plies] player player...
+ *
+ * where a player is ab:depth, mcts:playouts, random or greedy, and the results are written to file. With -gauntlet the
+ * first player plays against every other one, otherwise every player plays against every other one.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahTournament {
+
+    /**
+     * Random moves played from the initial board before the players take over, by default
+     */
+    public static final int OPENING_PLIES = 4;
+    /**
+     * First line of the log, the names of the columns
+     */
+    public static final String HEADER = "game,mode,playerA,playerB,houseA,houseB,moves";
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final List<KalahTournamentPlayer> players;
+    private final List<KalahMode> modes;
+    private final int rounds;
+    private final int openingPlies;
+    private final int threads;
+    private final long seed;
+
+    /**
+     * Constructor with the players and how to schedule them
+     *
+     * @param players the players
+     * @param modes the modes to play every pairing in
+     * @param rounds the rounds of every pairing in every mode, each round is two games
+     * @param openingPlies the random moves played before the players take over
+     * @param threads the number of threads to play with
+     * @param seed the seed of the openings and of the bots
+     */
+    public KalahTournament(List<KalahTournamentPlayer> players, List<KalahMode> modes, int rounds, int openingPlies,
+	    int threads, long seed) {
+	if (players.size() < 2) {
+	    throw new IllegalArgumentException("A tournament needs at least 2 players");
+	}
+	if (modes.isEmpty() || rounds < 1 || openingPlies < 0) {
+	    throw new IllegalArgumentException("There must be at least one mode and one round");
+	}
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1");
+	}
+	this.players = new ArrayList<>(players);
+	this.modes = new ArrayList<>(modes);
+	this.rounds = rounds;
+	this.openingPlies = openingPlies;
+	this.threads = threads;
+	this.seed = seed;
+    }
+
+    /**
+     * Plays every player against every other one
+     *
+     * @param log where to write the result of each game as it finishes, or null
+     * @return the results
+     * @throws IOException if the log can't be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public KalahTournamentResult roundRobin(Appendable log) throws IOException, InterruptedException {
+	List<int[]> pairings = new ArrayList<>();
+	for (int i = 0; i < players.size(); i++) {
+	    for (int j = i + 1; j < players.size(); j++) {
+		pairings.add(new int[]{i, j});
+	    }
+	}
+	return play(pairings, log);
+    }
+
+    /**
+     * Plays one player against every other one
+     *
+     * @param challenger the index of the player
+     * @param log where to write the result of each game as it finishes, or null
+     * @return the results
+     * @throws IOException if the log can't be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public KalahTournamentResult gauntlet(int challenger, Appendable log) throws IOException, InterruptedException {
+	List<int[]> pairings = new ArrayList<>();
+	for (int i = 0; i < players.size(); i++) {
+	    if (i != challenger) {
+		pairings.add(new int[]{challenger, i});
+	    }
+	}
+	return play(pairings, log);
+    }
+
+    private KalahTournamentResult play(List<int[]> pairings, Appendable log) throws IOException, InterruptedException {
+	KalahTournamentResult result = new KalahTournamentResult(players);
+	if (log != null) {
+	    log.append(HEADER).append('\n');
+	}
+	ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+	    Thread thread = new Thread(runnable, "kalah-tournament");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	CompletionService<int[]> games = new ExecutorCompletionService<>(executor);
+	int count = 0;
+	try {
+	    for (int[] pairing : pairings) {
+		for (KalahMode mode : modes) {
+		    for (int round = 0; round < rounds; round++) {
+			for (int seat = 0; seat < 2; seat++) {
+			    int game = count++;
+			    //both games of a round share the opening
+			    long opening = mix(seed + (game / 2) * GOLDEN_GAMMA);
+			    int playerA = pairing[seat];
+			    int playerB = pairing[1 - seat];
+			    games.submit(() -> play(game, mode, playerA, playerB, opening));
+			}
+		    }
+		}
+	    }
+	    //the games finish in any order, they are logged in the order of their numbers as soon as the ones before are
+	    int[][] finished = new int[count][];
+	    int logged = 0;
+	    for (int i = 0; i < count; i++) {
+		int[] game = games.take().get();
+		result.add(game[2], game[3], game[4], game[5]);
+		finished[game[0]] = game;
+		if (log == null || finished[logged] == null) {
+		    continue;
+		}
+		for (; logged < count && finished[logged] != null; logged++) {
+		    game = finished[logged];
+		    finished[logged] = null;
+		    log.append(String.format("%d,%s,%s,%s,%d,%d,%d\n", game[0], modes.get(game[1]),
+			    players.get(game[2]).getName(), players.get(game[3]).getName(), game[4], game[5], game[6]));
+		}
+		if (log instanceof Writer) {
+		    ((Writer) log).flush();
+		}
+	    }
+	} catch (ExecutionException ex) {
+	    throw new IllegalStateException(ex.getCause());
+	} finally {
+	    executor.shutdownNow();
+	}
+	return result;
+    }
+
+    /**
+     * Plays a game
+     *
+     * @return the number of the game, the index of the mode, the players, the houses and the number of moves
+     */
+    private int[] play(int number, KalahMode mode, int playerA, int playerB, long opening) throws KalahException {
+	ToIntFunction<KalahBoard> botA = players.get(playerA).newBot(mix(opening ^ playerA));
+	ToIntFunction<KalahBoard> botB = players.get(playerB).newBot(mix(opening ^ playerB ^ GOLDEN_GAMMA));
+	KalahGame game = new KalahGame(mode);
+	game.start();
+	SplittableRandom random = new SplittableRandom(opening);
+	for (int i = 0; i < openingPlies && game.getStatus() != KalahStatus.FINISHED; i++) {
+	    int legal = game.getBoard().legalMoves();
+	    int choice = random.nextInt(Integer.bitCount(legal));
+	    for (int pit = 0; pit < game.getRules().getPits(); pit++) {
+		if ((legal & (1 << pit)) != 0 && choice-- == 0) {
+		    game.tryMove(pit);
+		}
+	    }
+	}
+	while (game.getStatus() != KalahStatus.FINISHED) {
+	    ToIntFunction<KalahBoard> bot = game.getStatus() == KalahStatus.PLAYINGA ? botA : botB;
+	    int pit = bot.applyAsInt(game.getBoard());
+	    if (game.tryMove(pit) == KalahMove.ILEGAL) {
+		throw new IllegalStateException(players.get(game.getStatus() == KalahStatus.PLAYINGA ? playerA : playerB)
+			+ " played the illegal pit " + pit);
+	    }
+	}
+	KalahBoard board = game.getBoard();
+	return new int[]{number, modes.indexOf(mode), playerA, playerB, board.getHouse(KalahBoard.SIDE_A),
+	    board.getHouse(KalahBoard.SIDE_B), game.getMoveCount()};
+    }
+
+    /**
+     * Scrambles a seed so that near seeds give unrelated sequences, the finalizer of SplitMix64
+     */
+    private static long mix(long value) {
+	value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+	value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+	return value ^ (value >>> 31);
+    }
+
+    /**
+     * @param args the file for the results, the rounds, the threads, the seed, the options and the players
+     * @throws IOException if the file can't be written
+     * @throws InterruptedException if the thread is interrupted while playing
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length < 6) {
+	    System.err.println("Usage: KalahTournament file rounds threads seed [-gauntlet] [-opening plies] player player...");
+	    System.err.println("where a player is ab:depth, mcts:playouts, random or greedy");
+	    System.exit(1);
+	}
+	int rounds = Integer.parseInt(args[1]);
+	int threads = Integer.parseInt(args[2]);
+	long seed = Long.parseLong(args[3]);
+	boolean gauntlet = false;
+	int openingPlies = OPENING_PLIES;
+	List<KalahTournamentPlayer> players = new ArrayList<>();
+	for (int i = 4; i < args.length; i++) {
+	    if (args[i].equals("-gauntlet")) {
+		gauntlet = true;
+	    } else if (args[i].equals("-opening")) {
+		openingPlies = Integer.parseInt(args[++i]);
+	    } else {
+		players.add(KalahTournamentPlayer.parse(args[i]));
+	    }
+	}
+	KalahTournament tournament = new KalahTournament(players, Arrays.asList(KalahMode.values()), rounds, openingPlies,
+		threads, seed);
+	long start = System.currentTimeMillis();
+	KalahTournamentResult result;
+	try (Writer log = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+	    result = gauntlet ? tournament.gauntlet(0, log) : tournament.roundRobin(log);
+	}
+	System.out.print(result);
+	System.out.println(String.format("%d games in %d ms", result.getGames(), System.currentTimeMillis() - start));
+    }
+
+}
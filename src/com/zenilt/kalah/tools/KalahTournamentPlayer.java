@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import com.zenilt.kalah.KalahBoard;
+import com.zenilt.kalah.KalahRules;
+import com.zenilt.kalah.engine.KalahEngine;
+import com.zenilt.kalah.engine.KalahMctsEngine;
+import com.zenilt.kalah.engine.KalahPlayoutPolicy;
+import com.zenilt.kalah.engine.KalahTranspositionTable;
+import java.util.SplittableRandom;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A configuration that plays in a KalahTournament.
+ *
+ * The tournament asks the player for a new bot for every game, with a seed derived from the seed of the tournament and
+ * the number of the game, so a game is played the same way whatever the thread that plays it and whatever was played
+ * before. Bots that depend on the clock, like the engines with a time budget, can play too but their games can't be
+ * reproduced.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public final class KalahTournamentPlayer {
+
+    private static final long NO_TIME_LIMIT = 24L * 60 * 60 * 1000;
+    private static final long TABLE_SIZE = 1L << 20;
+
+    private final String name;
+    private final LongFunction<ToIntFunction<KalahBoard>> factory;
+
+    /**
+     * Constructor with the bot of each game
+     *
+     * @param name the name of the player in the results
+     * @param factory creates the bot of a game from its seed, the bot returns the pit to play for the side to move of a
+     * board
+     */
+    public KalahTournamentPlayer(String name, LongFunction<ToIntFunction<KalahBoard>> factory) {
+	this.name = name;
+	this.factory = factory;
+    }
+
+    /**
+     * Gets a player that searches with KalahEngine to a fixed depth, with no time limit
+     *
+     * @param depth the depth of the search, in plies
+     * @return the player, named ab:depth
+     */
+    public static KalahTournamentPlayer alphaBeta(int depth) {
+	return new KalahTournamentPlayer("ab:" + depth, seed -> {
+	    KalahEngine engine = new KalahEngine(NO_TIME_LIMIT, depth, new KalahTranspositionTable(TABLE_SIZE));
+	    return engine::bestMove;
+	});
+    }
+
+    /**
+     * Gets a player that searches with KalahMctsEngine for a fixed number of playouts, with no time limit
+     *
+     * @param playouts the number of playouts per move
+     * @return the player, named mcts:playouts
+     */
+    public static KalahTournamentPlayer mcts(long playouts) {
+	return new KalahTournamentPlayer("mcts:" + playouts, seed -> {
+	    int nodes = (int) Math.min(KalahMctsEngine.MAX_NODES, (playouts + 1) * KalahRules.MAX_PITS);
+	    KalahMctsEngine engine = new KalahMctsEngine(NO_TIME_LIMIT, playouts, nodes, KalahPlayoutPolicy.GREEDY, seed);
+	    return engine::bestMove;
+	});
+    }
+
+    /**
+     * Gets a player that moves as a playout policy
+     *
+     * @param policy the policy
+     * @return the player, named after the policy
+     */
+    public static KalahTournamentPlayer policy(KalahPlayoutPolicy policy) {
+	return new KalahTournamentPlayer(policy.name().toLowerCase(), seed -> {
+	    SplittableRandom random = new SplittableRandom(seed);
+	    return board -> policy.choose(board, random);
+	});
+    }
+
+    /**
+     * Gets a player from its description: ab:depth, mcts:playouts, random or greedy
+     *
+     * @param description the description
+     * @return the player
+     */
+    public static KalahTournamentPlayer parse(String description) {
+	String[] parts = description.split(":");
+	switch (parts[0]) {
+	    case "ab":
+		return alphaBeta(Integer.parseInt(parts[1]));
+	    case "mcts":
+		return mcts(Long.parseLong(parts[1]));
+	    default:
+		return policy(KalahPlayoutPolicy.valueOf(parts[0].toUpperCase()));
+	}
+    }
+
+    /**
+     * Gets the name of the player
+     *
+     * @return the name
+     */
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Creates the bot of a game
+     */
+    ToIntFunction<KalahBoard> newBot(long seed) {
+	return factory.apply(seed);
+    }
+
+    @Override
+    public String toString() {
+	return name;
+    }
+
+}
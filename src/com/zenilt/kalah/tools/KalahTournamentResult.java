@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Juan Francisco Rodríguez.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.zenilt.kalah.tools;
+
+import java.util.List;
+
+/**
+ * Results of a KalahTournament: the wins, draws and losses of every pairing and the Elo of every player.
+ *
+ * The Elo of a player is the rating difference against the average of its opponents that explains its score, the
+ * interval is the 95% confidence interval of the score mapped to Elo, computed from the variance of the results of its
+ * games. A player that won or lost every game has an infinite Elo, and so has the bound of an interval that reaches a
+ * score of 0 or 1.
+ *
+ * @author Juan Francisco Rodríguez
+ */
+public class KalahTournamentResult {
+
+    private static final double Z95 = 1.959964;
+
+    private final String[] names;
+    private final int[][] wins;
+    private final int[][] draws;
+    private final int[][] games;
+
+    /**
+     * Constructor with no games
+     *
+     * @param players the players of the tournament
+     */
+    KalahTournamentResult(List<KalahTournamentPlayer> players) {
+	int count = players.size();
+	this.names = new String[count];
+	for (int i = 0; i < count; i++) {
+	    names[i] = players.get(i).getName();
+	}
+	this.wins = new int[count][count];
+	this.draws = new int[count][count];
+	this.games = new int[count][count];
+    }
+
+    /**
+     * Adds the result of a game
+     */
+    void add(int playerA, int playerB, int houseA, int houseB) {
+	games[playerA][playerB]++;
+	games[playerB][playerA]++;
+	if (houseA > houseB) {
+	    wins[playerA][playerB]++;
+	} else if (houseB > houseA) {
+	    wins[playerB][playerA]++;
+	} else {
+	    draws[playerA][playerB]++;
+	    draws[playerB][playerA]++;
+	}
+    }
+
+    /**
+     * Gets the number of players
+     *
+     * @return the number of players
+     */
+    public int getPlayers() {
+	return names.length;
+    }
+
+    /**
+     * Gets the name of a player
+     *
+     * @param player the index of the player
+     * @return the name
+     */
+    public String getName(int player) {
+	return names[player];
+    }
+
+    /**
+     * Gets the number of games played
+     *
+     * @return the number of games of all the pairings
+     */
+    public int getGames() {
+	int total = 0;
+	for (int i = 0; i < names.length; i++) {
+	    total += getGames(i);
+	}
+	return total / 2;
+    }
+
+    /**
+     * Gets the number of games of a player
+     *
+     * @param player the index of the player
+     * @return the number of games against all the opponents
+     */
+    public int getGames(int player) {
+	return sum(games[player]);
+    }
+
+    /**
+     * Gets the number of games between two players
+     *
+     * @param player the index of the player
+     * @param opponent the index of the opponent
+     * @return the number of games
+     */
+    public int getGames(int player, int opponent) {
+	return games[player][opponent];
+    }
+
+    /**
+     * Gets the score of a player, a win counts 1 and a draw 0.5
+     *
+     * @param player the index of the player
+     * @return the points per game against all the opponents, NaN if it played no games
+     */
+    public double getScore(int player) {
+	return (sum(wins[player]) + sum(draws[player]) / 2.0) / getGames(player);
+    }
+
+    /**
+     * Gets the score of a player against an opponent, a win counts 1 and a draw 0.5
+     *
+     * @param player the index of the player
+     * @param opponent the index of the opponent
+     * @return the points per game, NaN if they played no games
+     */
+    public double getScore(int player, int opponent) {
+	return (wins[player][opponent] + draws[player][opponent] / 2.0) / games[player][opponent];
+    }
+
+    /**
+     * Gets the Elo of a player against the average of its opponents
+     *
+     * @param player the index of the player
+     * @return the rating difference
+     */
+    public double getElo(int player) {
+	return elo(getScore(player));
+    }
+
+    /**
+     * Gets the Elo difference between two players
+     *
+     * @param player the index of the player
+     * @param opponent the index of the opponent
+     * @return the rating difference
+     */
+    public double getElo(int player, int opponent) {
+	return elo(getScore(player, opponent));
+    }
+
+    /**
+     * Gets the half width of the 95% confidence interval of the Elo of a player
+     *
+     * @param player the index of the player
+     * @return the margin in Elo
+     */
+    public double getEloError(int player) {
+	return error(sum(wins[player]), sum(draws[player]), getGames(player));
+    }
+
+    /**
+     * Gets the half width of the 95% confidence interval of the Elo difference between two players
+     *
+     * @param player the index of the player
+     * @param opponent the index of the opponent
+     * @return the margin in Elo
+     */
+    public double getEloError(int player, int opponent) {
+	return error(wins[player][opponent], draws[player][opponent], games[player][opponent]);
+    }
+
+    /**
+     * Formats a table with the games, the results and the Elo of every player
+     */
+    @Override
+    public String toString() {
+	StringBuilder builder = new StringBuilder();
+	builder.append(String.format("%-16s %7s %7s %7s %7s %7s %9s %7s%n", "player", "games", "wins", "draws", "losses",
+		"score", "elo", "+/-"));
+	for (int i = 0; i < names.length; i++) {
+	    int played = getGames(i);
+	    int won = sum(wins[i]);
+	    int drawn = sum(draws[i]);
+	    builder.append(String.format("%-16s %7d %7d %7d %7d %7.3f %9.1f %7.1f%n", names[i], played, won, drawn,
+		    played - won - drawn, getScore(i), getElo(i), getEloError(i)));
+	}
+	return builder.toString();
+    }
+
+    private static double elo(double score) {
+	return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static double error(int won, int drawn, int played) {
+	double score = (won + drawn / 2.0) / played;
+	int lost = played - won - drawn;
+	double variance = (won * Math.pow(1 - score, 2) + drawn * Math.pow(0.5 - score, 2) + lost * Math.pow(score, 2))
+		/ played;
+	double margin = Z95 * Math.sqrt(variance / played);
+	return (elo(Math.min(score + margin, 1)) - elo(Math.max(score - margin, 0))) / 2;
+    }
+
+    private static int sum(int[] values) {
+	int total = 0;
+	for (int value : values) {
+	    total += value;
+	}
+	return total;
+    }
+
+}